@@ -44,6 +44,7 @@ public final class Server {
     /**
      * Starts single node cluster at HTTP port 8080 and
      * temporary data storage if storage path not supplied.
+     * Checkpoints are made on request only under the directory given as the second argument.
      */
     public static void main(String[] args) throws IOException {
         // Temporary storage in the file system
@@ -55,12 +56,15 @@ public final class Server {
         }
         LOG.info("Storing data at {}", data);
 
+        final Path checkpoints = args.length > 1 ? Path.of(args[1]) : null;
+
         // Start the storage
         try (DAO dao = DAOFactory.create(new DAOConfig(data))) {
             final Service storage =
                     ServiceFactory.create(
                             PORT,
-                            dao);
+                            dao,
+                            checkpoints);
             storage.start();
             Runtime.getRuntime().addShutdownHook(
                     new Thread(() -> {
@@ -0,0 +1,23 @@
+package ru.mail.polis.lsm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Forward-only view over a range of records.
+ *
+ * <p>Buffers returned by {@link #key()} and {@link #value()} are reused by the cursor
+ * and stay valid only until the next call of {@link #next()}.
+ */
+public interface Cursor {
+
+    /**
+     * Moves the cursor to the next record.
+     *
+     * @return {@code true} if the cursor points to a record, {@code false} if the range is over
+     */
+    boolean next();
+
+    ByteBuffer key();
+
+    ByteBuffer value();
+}
@@ -2,8 +2,17 @@ package ru.mail.polis.lsm;
 
 import javax.annotation.Nullable;
 import java.io.Closeable;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Minimal database API.
@@ -11,8 +20,166 @@ import java.util.Iterator;
 public interface DAO extends Closeable {
     Iterator<Record> range(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey);
 
+    /**
+     * Returns record with the given key.
+     *
+     * @param key key to find
+     * @return record or {@code null} if there is no such key
+     */
+    @Nullable
+    default Record get(ByteBuffer key) {
+        Iterator<Record> range = range(key, nextKey(key));
+        return range.hasNext() ? range.next() : null;
+    }
+
+    /**
+     * Returns cursor over the same records as {@link #range} without allocating objects per record.
+     *
+     * @param fromKey first key of the range, inclusive
+     * @param toKey   last key of the range, exclusive
+     * @return cursor positioned before the first record
+     */
+    Cursor cursor(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey);
+
+    /**
+     * Returns keys of the same records as {@link #range} without reading their values where possible.
+     *
+     * @param fromKey first key of the range, inclusive
+     * @param toKey   last key of the range, exclusive
+     * @return iterator of keys
+     */
+    default Iterator<ByteBuffer> keys(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        Iterator<Record> range = range(fromKey, toKey);
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return range.hasNext();
+            }
+
+            @Override
+            public ByteBuffer next() {
+                return range.next().getKey();
+            }
+        };
+    }
+
+    /**
+     * Returns stream of the same records as {@link #range}.
+     * Implementations may split it by key ranges, so a parallel stream reads parts of the range concurrently,
+     * the default one can't be split.
+     *
+     * @param fromKey first key of the range, inclusive
+     * @param toKey   last key of the range, exclusive
+     * @return stream of records in key order
+     */
+    default Stream<Record> stream(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(range(fromKey, toKey), Spliterator.ORDERED | Spliterator.NONNULL),
+                false
+        );
+    }
+
     void upsert(Record record);
 
+    /**
+     * Looks the key up on a read executor of the storage, so the caller never blocks on disk.
+     *
+     * @param key key to find
+     * @return future of the record or of {@code null} if there is no such key, failed with
+     *     {@link java.util.concurrent.RejectedExecutionException} if the read executor is overloaded
+     */
+    CompletableFuture<Record> getAsync(ByteBuffer key);
+
+    /**
+     * Upserts the record on a write executor of the storage, including a flush it may cause.
+     *
+     * @param record record to upsert
+     * @return future completed when the record is visible to reads
+     */
+    CompletableFuture<Void> upsertAsync(Record record);
+
+    /**
+     * Returns publisher of the same records as {@link #range}, records are read on a read executor
+     * only as far as the subscriber requested them. Every subscription reads its own range.
+     * If the read executor is overloaded, the subscriber gets
+     * {@link java.util.concurrent.RejectedExecutionException} in {@code onError}.
+     *
+     * @param fromKey first key of the range, inclusive
+     * @param toKey   last key of the range, exclusive
+     * @return publisher of the records
+     */
+    Flow.Publisher<Record> rangeAsync(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey);
+
+    /**
+     * Estimates size of records in the range without reading them, from table indexes and memory sizes.
+     * Overwritten and deleted keys are counted in every table they are in, so it may be larger than the range.
+     *
+     * @param fromKey first key of the range, inclusive
+     * @param toKey   last key of the range, exclusive
+     * @return approximate size in bytes
+     */
+    long approximateSize(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey);
+
+    /**
+     * Estimates number of records in the range the same way as {@link #approximateSize}.
+     *
+     * @param fromKey first key of the range, inclusive
+     * @param toKey   last key of the range, exclusive
+     * @return approximate number of records
+     */
+    long approximateCount(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey);
+
+    void compact() throws IOException;
+
+    /**
+     * Attaches a table built offline to the storage without rewriting it.
+     * Ingested records override all records written before.
+     *
+     * @param dir directory with the table
+     * @throws IOException if the table can't be read or is malformed
+     */
+    void ingest(Path dir) throws IOException;
+
+    /**
+     * Makes a consistent copy of the storage in {@code target} without stopping writes for long.
+     * Files are hard linked, so the copy takes no extra space until the storage rewrites them.
+     *
+     * @param target absent or empty directory for the copy
+     * @throws IOException if the copy can't be made
+     */
+    void checkpoint(Path target) throws IOException;
+
+    /**
+     * Reads all tables from disk and checks their checksums.
+     * Writes and reads are not blocked, so it may be run periodically in background.
+     *
+     * @return files of corrupted tables, empty if all tables are intact
+     * @throws IOException if the check can't be run
+     */
+    List<Path> verify() throws IOException;
+
+    /**
+     * Keeps files the storage reads from mapped until the returned handle is closed, even if the storage
+     * is closed meanwhile. Values read after this call may then be used as views of the files
+     * after the read returned, for example written from the mapping straight to a socket.
+     *
+     * @return handle to close when the values are no longer used
+     */
+    default Closeable retainFiles() {
+        return () -> {
+        };
+    }
+
+    /**
+     * Returns counters of the row cache of point lookups.
+     *
+     * @return row cache stats, {@link RowCacheStats#EMPTY} if the storage has no row cache
+     */
+    default RowCacheStats rowCacheStats() {
+        return RowCacheStats.EMPTY;
+    }
+
     void closeAndCompact();
 
     /**
@@ -4,16 +4,67 @@ import java.nio.file.Path;
 
 public class DAOConfig {
     public static final int DEFAULT_MEMORY_LIMIT = 4 * 1024 * 1024;
+    public static final int VALUE_LOG_DISABLED = Integer.MAX_VALUE;
 
     public final Path dir;
+    /**
+     * Bytes of heap for memory tables and the row cache together.
+     */
     public final int memoryLimit;
+    public final Verification verification;
+    /**
+     * Values of this size or larger are kept in the value log, tables store only pointers to them.
+     */
+    public final int valueLogThreshold;
+    /**
+     * Bytes of heap given to the row cache of point lookups out of {@link #memoryLimit}, zero disables the cache.
+     */
+    public final long rowCacheSize;
 
     public DAOConfig(Path dir) {
         this(dir, DEFAULT_MEMORY_LIMIT);
     }
 
     public DAOConfig(Path dir, int memoryLimit) {
+        this(dir, memoryLimit, Verification.INDEX);
+    }
+
+    public DAOConfig(Path dir, int memoryLimit, Verification verification) {
+        this(dir, memoryLimit, verification, VALUE_LOG_DISABLED);
+    }
+
+    public DAOConfig(Path dir, int memoryLimit, Verification verification, int valueLogThreshold) {
+        this(dir, memoryLimit, verification, valueLogThreshold, 0);
+    }
+
+    public DAOConfig(Path dir, int memoryLimit, Verification verification, int valueLogThreshold,
+                     long rowCacheSize) {
         this.dir = dir;
         this.memoryLimit = memoryLimit;
+        this.verification = verification;
+        this.valueLogThreshold = valueLogThreshold;
+        this.rowCacheSize = rowCacheSize;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * How much of the stored checksums is checked while reading.
+     */
+    public enum Verification {
+        /**
+         * Checksums are checked only by {@link DAO#verify()}.
+         */
+        NONE,
+        /**
+         * Index checksum is checked when a table is opened.
+         */
+        INDEX,
+        /**
+         * Index checksum is checked on open and every record is checked when it is read.
+         */
+        RECORDS
     }
 }
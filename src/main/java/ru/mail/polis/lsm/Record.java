@@ -2,20 +2,45 @@ package ru.mail.polis.lsm;
 
 import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
+import java.util.function.Supplier;
 
 @SuppressWarnings("JavaLangClash")
 public class Record {
 
     private final ByteBuffer key;
     private final ByteBuffer value;
+    @Nullable
+    private final Supplier<ByteBuffer> valueReader;
+    private final int valueSize;
 
     Record(ByteBuffer key, @Nullable ByteBuffer value) {
         this.key = key.asReadOnlyBuffer();
         this.value = value == null ? null : value.asReadOnlyBuffer();
+        this.valueReader = null;
+        this.valueSize = value == null ? 0 : value.remaining();
+    }
+
+    private Record(ByteBuffer key, int valueSize, Supplier<ByteBuffer> valueReader) {
+        this.key = key.asReadOnlyBuffer();
+        this.value = null;
+        this.valueReader = valueReader;
+        this.valueSize = valueSize;
     }
 
     public static Record of(ByteBuffer key, ByteBuffer value) {
-        return new Record(key.asReadOnlyBuffer(), value.asReadOnlyBuffer());
+        return new Record(key, value);
+    }
+
+    /**
+     * Creates record whose value is read only by {@link #getValue}, so key scans never touch value bytes.
+     *
+     * @param key         key
+     * @param valueSize   size of the value
+     * @param valueReader reads the value on every call of {@link #getValue}
+     * @return record
+     */
+    public static Record lazy(ByteBuffer key, int valueSize, Supplier<ByteBuffer> valueReader) {
+        return new Record(key, valueSize, valueReader);
     }
 
     public static Record tombstone(ByteBuffer key) {
@@ -27,11 +52,15 @@ public class Record {
     }
 
     public ByteBuffer getValue() {
+        if (valueReader != null) {
+            return valueReader.get().asReadOnlyBuffer();
+        }
+
         return value == null ? null : value.asReadOnlyBuffer();
     }
 
     public boolean isTombstone() {
-        return value == null;
+        return value == null && valueReader == null;
     }
 
     public int getKeySize() {
@@ -39,7 +68,7 @@ public class Record {
     }
 
     public int getValueSize() {
-        return value == null ? 0 : value.remaining();
+        return valueSize;
     }
 
 }
@@ -0,0 +1,70 @@
+package ru.mail.polis.lsm;
+
+/**
+ * Snapshot of row cache counters.
+ */
+public final class RowCacheStats {
+    /**
+     * Counters of a storage without row cache.
+     */
+    public static final RowCacheStats EMPTY = new RowCacheStats(0, 0, 0, 0, 0);
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long count;
+    private final long size;
+
+    public RowCacheStats(long hits, long misses, long evictions, long count, long size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.count = count;
+        this.size = size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns estimated size of cached records in bytes.
+     *
+     * @return size in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns share of lookups served by the cache.
+     *
+     * @return hit rate from 0 to 1.
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits
+                + " misses=" + misses
+                + " hitRate=" + getHitRate()
+                + " evictions=" + evictions
+                + " count=" + count
+                + " size=" + size;
+    }
+}
@@ -1,42 +1,148 @@
 package ru.mail.polis.lsm.sachuk.ilya;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.lsm.Cursor;
 import ru.mail.polis.lsm.DAO;
 import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.DAOConfig.Verification;
 import ru.mail.polis.lsm.Record;
+import ru.mail.polis.lsm.RowCacheStats;
+import ru.mail.polis.lsm.sachuk.ilya.iterators.MergeCursor;
 import ru.mail.polis.lsm.sachuk.ilya.iterators.MergeIterator;
+import ru.mail.polis.lsm.sachuk.ilya.iterators.RecordCursor;
+import ru.mail.polis.lsm.sachuk.ilya.iterators.RecordIteratorCursor;
 
 import javax.annotation.Nullable;
-import java.io.File;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
 import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.Spliterator;
 import java.util.Spliterators;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.stream.Collectors;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class DaoImpl implements DAO {
 
-    private static final long LIMIT = 16L * 1024 * 1024;
+    private static final Logger LOG = LoggerFactory.getLogger(DaoImpl.class);
+
+    /**
+     * Number of memory stripes, must be a power of two. Each stripe is flushed at its share
+     * of the memory limit left after the row cache.
+     */
+    private static final int STRIPES = 8;
+    private static final int COMPACTION_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final int ASYNC_READERS = Runtime.getRuntime().availableProcessors();
+    private static final int ASYNC_WRITERS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * Number of async reads waiting for a reader, reads beyond it are rejected instead of piling up.
+     */
+    private static final int ASYNC_READ_QUEUE = 1024;
+    private static final int SAMPLES_PER_PARTITION = 8;
+
+    /**
+     * Number of parts a stream is split into at most, a few per thread of the common pool to even out the parts.
+     */
+    private static final int STREAM_PARTITIONS = ForkJoinPool.getCommonPoolParallelism() * 4;
+
+    /**
+     * Background compaction starts when a table has at least this share of tombstones...
+     */
+    private static final double TOMBSTONE_RATIO_LIMIT = 0.5;
+
+    /**
+     * ...or when tombstones are estimated to hide this many bytes, one average record per tombstone.
+     */
+    private static final long DEAD_BYTES_LIMIT = 64L * 1024 * 1024;
 
     private final Path dirPath;
-    private final SortedMap<ByteBuffer, Record> memoryStorage = new ConcurrentSkipListMap<>();
+    private final Verification verification;
+    private final ValueLog valueLog;
+    @Nullable
+    private final RowCache rowCache;
+    private final MemoryStripe[] memoryStripes = new MemoryStripe[STRIPES];
     private final List<SSTable> ssTables = new ArrayList<>();
 
-    private long memoryConsumption;
+    /**
+     * Tables replaced by compactions that are still read, they are deleted when released.
+     */
+    private final Set<SSTable> retiredTables = new HashSet<>();
+
+    /**
+     * Blob files no table refers to, deleted when no retired table is read.
+     */
+    private final Set<Integer> retiredBlobFiles = new HashSet<>();
+    private final ForkJoinPool compactionPool = new ForkJoinPool(COMPACTION_PARALLELISM);
+    private final ExecutorService compactionScheduler =
+            Executors.newSingleThreadExecutor(daemonThreads("background-compaction"));
+    private final ExecutorService readExecutor = new ThreadPoolExecutor(
+            ASYNC_READERS,
+            ASYNC_READERS,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(ASYNC_READ_QUEUE),
+            daemonThreads("dao-read")
+    );
+    private final ExecutorService writeExecutor =
+            Executors.newFixedThreadPool(ASYNC_WRITERS, daemonThreads("dao-write"));
+    private final ExecutorService ioExecutor =
+            Executors.newFixedThreadPool(COMPACTION_PARALLELISM, daemonThreads("sstable-io"));
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final Object compactionLock = new Object();
+
+    /**
+     * Stripe flushes hold the read lock from reserving a table number until the table is installed.
+     * The write lock waits for them, so tables never get installed out of their number order
+     * relative to compaction, ingest and checkpoint.
+     */
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
     private int nextSSTableNumber;
 
+    /**
+     * Published {@link #ssTables}, readers acquire it under the storage lock.
+     */
+    private TableSet tableSet;
+
     /**
      * Constructor that initialize path and restore storage.
      *
@@ -44,76 +150,491 @@ public class DaoImpl implements DAO {
      * @throws IOException is thrown when an I/O error occurs.
      */
     public DaoImpl(DAOConfig config) throws IOException {
+        long memoryLimit = config.memoryLimit - config.rowCacheSize;
+        if (memoryLimit < STRIPES) {
+            throw new IllegalArgumentException(
+                    "Row cache of " + config.rowCacheSize + " bytes leaves no memory of " + config.memoryLimit
+            );
+        }
+
         this.dirPath = config.getDir();
+        this.verification = config.verification;
+        this.valueLog = new ValueLog(dirPath, config.valueLogThreshold);
+        this.rowCache = config.rowCacheSize > 0 ? new RowCache(config.rowCacheSize) : null;
+
+        for (int i = 0; i < STRIPES; i++) {
+            memoryStripes[i] = new MemoryStripe(memoryLimit / STRIPES);
+        }
+
+        try {
+            ssTables.addAll(SSTable.loadFromDir(dirPath, verification, valueLog));
+            nextSSTableNumber = ssTables.isEmpty() ? 0 : ssTables.get(ssTables.size() - 1).getFileNumber() + 1;
 
-        ssTables.addAll(SSTable.loadFromDir(dirPath));
-        nextSSTableNumber = ssTables.size();
+            valueLog.deleteFrom(nextSSTableNumber);
+            tableSet = new TableSet(ssTables, this::retire);
+        } catch (IOException e) {
+            closeSSTables();
+            valueLog.close();
+            throw e;
+        }
     }
 
     @Override
     public Iterator<Record> range(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return range(fromKey, toKey, false);
+    }
+
+    /**
+     * Lists keys of the range with records of tables that read values only on request,
+     * so values stay unread apart from values of legacy records as long as the tombstone marker.
+     *
+     * @param fromKey is first key, inclusive.
+     * @param toKey   is last key, exclusive.
+     * @return iterator of keys.
+     */
+    @Override
+    public Iterator<ByteBuffer> keys(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return StreamSupport
+                .stream(
+                        Spliterators.spliteratorUnknownSize(range(fromKey, toKey, true), Spliterator.ORDERED),
+                        false
+                )
+                .map(Record::getKey)
+                .iterator();
+    }
+
+    /**
+     * Opens range over the current tables, they stay in place until the range is read to the end,
+     * closed or becomes unreachable.
+     */
+    private TableSet.ReleasingIterator<Record> range(
+            @Nullable ByteBuffer fromKey,
+            @Nullable ByteBuffer toKey,
+            boolean lazyValues
+    ) {
+        TableSet tables;
+        List<SortedMap<ByteBuffer, Record>> memoryRecords;
+        synchronized (this) {
+            tables = tableSet.acquire();
+            memoryRecords = memoryRecords();
+        }
+
+        return tables.releaseAfter(range(tables.tables(), memoryRecords, fromKey, toKey, lazyValues));
+    }
+
+    /**
+     * Streams records of the range, the stream is split by sample keys of tables inside the range,
+     * so a parallel stream merges every part on its own thread. Parts read the tables and the memory
+     * storage taken when the stream was created, the tables stay in place until the stream is closed
+     * or its parts become unreachable.
+     *
+     * @param fromKey is first key, inclusive.
+     * @param toKey   is last key, exclusive.
+     * @return stream of records in key order.
+     */
+    @Override
+    public Stream<Record> stream(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        TableSet tables;
+        List<SortedMap<ByteBuffer, Record>> memoryRecords;
+        synchronized (this) {
+            tables = tableSet.acquire();
+            memoryRecords = memoryRecords();
+        }
+
+        BiFunction<ByteBuffer, ByteBuffer, Iterator<Record>> range =
+                (from, to) -> range(tables.tables(), memoryRecords, from, to, false);
+        Cleaner.Cleanable release = tables.releaseWith(range);
+
+        RangeSpliterator spliterator = new RangeSpliterator(
+                range,
+                fromKey,
+                toKey,
+                splitKeys(tables.tables(), fromKey, toKey, STREAM_PARTITIONS),
+                approximateCount(fromKey, toKey)
+        );
+
+        return StreamSupport.stream(spliterator, false).onClose(release::clean);
+    }
+
+    /**
+     * Looks the key up in the row cache, then in its memory stripe and then in tables from the newest one.
+     * Keys found in tables are cached, memory storage is checked after the cache because
+     * every upsert invalidates the cached key.
+     *
+     * @param key is key.
+     * @return record or {@code null}.
+     */
+    @Nullable
+    @Override
+    public Record get(ByteBuffer key) {
+        Record record = rowCache == null ? null : rowCache.get(key);
+
+        if (record == null) {
+            record = getFromStorage(key);
+        }
+
+        return record == null || record.isTombstone() ? null : record;
+    }
+
+    /**
+     * Returns statistics of tables from the oldest to the newest.
+     *
+     * @return table stats.
+     */
+    public List<TableStats> tableStats() {
         synchronized (this) {
-            Iterator<Record> ssTableRanges = ssTableRanges(fromKey, toKey);
+            List<TableStats> stats = new ArrayList<>(ssTables.size());
 
-            Iterator<Record> memoryRange = map(fromKey, toKey).values().iterator();
-            Iterator<Record> mergedIterators = mergeTwo(ssTableRanges, memoryRange);
+            for (SSTable ssTable : ssTables) {
+                stats.add(ssTable.stats());
+            }
 
-            return StreamSupport
-                    .stream(
-                            Spliterators.spliteratorUnknownSize(mergedIterators, Spliterator.ORDERED),
-                            false
-                    )
-                    .filter(record -> !record.isTombstone())
-                    .iterator();
+            return stats;
         }
     }
 
+    /**
+     * Estimates size of the range by index lookups in tables that intersect it and by sizes of memory stripes.
+     *
+     * @param fromKey is first key, inclusive.
+     * @param toKey   is last key, exclusive.
+     * @return approximate size in bytes.
+     */
     @Override
-    public void upsert(Record record) throws UncheckedIOException {
+    public long approximateSize(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        List<SSTable> tables;
+        synchronized (this) {
+            tables = new ArrayList<>(ssTables);
+        }
+
+        long size = 0;
+        for (SSTable ssTable : tables) {
+            size += ssTable.approximateSize(fromKey, toKey);
+        }
+        for (MemoryStripe memoryStripe : memoryStripes) {
+            size += memoryStripe.approximateSize(fromKey, toKey);
+        }
+
+        return size;
+    }
+
+    @Override
+    public long approximateCount(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        List<SSTable> tables;
+        synchronized (this) {
+            tables = new ArrayList<>(ssTables);
+        }
+
+        long count = 0;
+        for (SSTable ssTable : tables) {
+            count += ssTable.approximateCount(fromKey, toKey);
+        }
+        for (MemoryStripe memoryStripe : memoryStripes) {
+            count += memoryStripe.approximateCount(fromKey, toKey);
+        }
+
+        return count;
+    }
+
+    @Override
+    public Closeable retainFiles() {
         synchronized (this) {
-            memoryConsumption += sizeOf(record);
-            if (memoryConsumption > LIMIT) {
-                try {
-                    flush();
-                    memoryConsumption = 0;
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
+            return tableSet.acquire().handle();
+        }
+    }
+
+    @Override
+    public RowCacheStats rowCacheStats() {
+        return rowCache == null ? RowCacheStats.EMPTY : rowCache.stats();
+    }
+
+    @Override
+    public Cursor cursor(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        synchronized (this) {
+            TableSet tables = tableSet.acquire();
+            List<RecordCursor> cursors = new ArrayList<>(tables.tables().size() + STRIPES);
+
+            for (SSTable ssTable : tables.tables()) {
+                if (ssTable.intersects(fromKey, toKey)) {
+                    cursors.add(ssTable.cursor(fromKey, toKey));
                 }
             }
+            for (MemoryStripe memoryStripe : memoryStripes) {
+                cursors.add(new RecordIteratorCursor(memoryStripe.records(fromKey, toKey).values().iterator()));
+            }
+
+            return tables.releaseAfter(new MergeCursor(cursors));
+        }
+    }
+
+    /**
+     * Puts the record into its memory stripe, only writers of the same stripe contend.
+     * The stripe is flushed by the writer that filled it.
+     *
+     * @param record is record.
+     * @throws UncheckedIOException is thrown when the flush fails.
+     */
+    @Override
+    public void upsert(Record record) throws UncheckedIOException {
+        MemoryStripe memoryStripe = memoryStripes[stripeIndex(record.getKey())];
+        boolean full = memoryStripe.put(record);
+
+        if (rowCache != null) {
+            rowCache.invalidate(record.getKey());
+        }
+
+        if (full) {
+            Lock lock = flushLock.readLock();
+            lock.lock();
+            try {
+                flushIfFull(memoryStripe);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Record> getAsync(ByteBuffer key) {
+        try {
+            return CompletableFuture.supplyAsync(() -> get(key), readExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
         }
+    }
+
+    @Override
+    public CompletableFuture<Void> upsertAsync(Record record) {
+        return CompletableFuture.runAsync(() -> upsert(record), writeExecutor);
+    }
 
-        memoryConsumption += sizeOf(record);
-        memoryStorage.put(record.getKey(), record);
+    @Override
+    public Flow.Publisher<Record> rangeAsync(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return new RangePublisher(() -> range(fromKey, toKey, false), readExecutor);
     }
 
+    /**
+     * Flushes memory storage and merges all tables into non-overlapping tables.
+     *
+     * @throws IOException is thrown when an I/O error occurs.
+     */
     @Override
     public void compact() throws IOException {
+        Lock lock = flushLock.writeLock();
+        lock.lock();
+        try {
+            flushAll();
+        } finally {
+            lock.unlock();
+        }
+
+        compactTables(true);
+    }
+
+    /**
+     * Attaches table built by {@link SSTableWriter} as the newest table.
+     * Only memory stripes that have keys inside the range of the ingested table are flushed first.
+     *
+     * @param dir is directory with the table.
+     * @throws IOException is thrown when an I/O error occurs or the table is malformed.
+     */
+    @Override
+    public void ingest(Path dir) throws IOException {
+        List<SSTable> externalTables = SSTable.loadFromDir(dir, Verification.INDEX, null);
+
+        try {
+            if (externalTables.size() != 1) {
+                throw new IOException("Expected exactly one table in " + dir + ", found " + externalTables.size());
+            }
+
+            SSTable external = externalTables.get(0);
+            external.validate();
+            external.verifyChecksums();
+
+            if (external.isEmpty()) {
+                return;
+            }
+
+            Lock lock = flushLock.writeLock();
+            lock.lock();
+            try {
+                List<MemoryStripe> overlappingStripes = new ArrayList<>(STRIPES);
+                for (MemoryStripe memoryStripe : memoryStripes) {
+                    SortedMap<ByteBuffer, Record> memoryTail = memoryStripe.records().tailMap(external.firstKey());
+
+                    if (!memoryTail.isEmpty() && memoryTail.firstKey().compareTo(external.lastKey()) <= 0) {
+                        overlappingStripes.add(memoryStripe);
+                    }
+                }
+                flush(overlappingStripes);
+
+                synchronized (this) {
+                    ssTables.add(SSTable.link(external, dirPath, nextSSTableNumber++, verification, valueLog));
+                    publishTables();
+
+                    if (rowCache != null) {
+                        rowCache.invalidateAll();
+                    }
+
+                    scheduleCompactionIfNeeded();
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            for (SSTable externalTable : externalTables) {
+                externalTable.close();
+            }
+        }
+    }
+
+    /**
+     * Flushes memory storage and links files of all tables into {@code target}.
+     * Tables are linked under the lock, so compaction can't delete them in the middle.
+     *
+     * @param target is absent or empty directory for the checkpoint.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    @Override
+    public void checkpoint(Path target) throws IOException {
+        Files.createDirectories(target);
+
+        try (Stream<Path> files = Files.list(target)) {
+            if (files.findAny().isPresent()) {
+                throw new FileAlreadyExistsException(target.toString(), null, "Checkpoint directory is not empty");
+            }
+        }
+
+        Lock lock = flushLock.writeLock();
+        lock.lock();
+        try {
+            flushAll();
+
+            synchronized (this) {
+                for (SSTable ssTable : ssTables) {
+                    ssTable.linkTo(target);
+                }
+                valueLog.linkTo(target);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks tables in parallel on the compaction pool.
+     * Tables replaced by a compaction during the check are skipped.
+     *
+     * @return files of corrupted tables.
+     * @throws IOException is thrown when the check is interrupted.
+     */
+    @Override
+    public List<Path> verify() throws IOException {
+        List<SSTable> tables;
         synchronized (this) {
-            Iterator<Record> iterator = range(null, null);
+            tables = new ArrayList<>(ssTables);
+        }
 
-            SSTable compactedTable = SSTable.save(iterator, dirPath, nextSSTableNumber++);
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>(tables.size());
+        for (SSTable ssTable : tables) {
+            tasks.add(compactionPool.submit(() -> isIntact(ssTable)));
+        }
 
-            String indexFile = compactedTable.getIndexPath().getFileName().toString();
-            String saveFile = compactedTable.getSavePath().getFileName().toString();
+        List<Path> corruptedTables = new ArrayList<>();
 
-            closeOldTables(indexFile, saveFile);
-            deleteOldTables(indexFile, saveFile);
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                if (!tasks.get(i).get()) {
+                    corruptedTables.add(tables.get(i).getSavePath());
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Verification failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Verification interrupted", e);
+            }
+        }
 
-            ssTables.add(compactedTable);
+        return corruptedTables;
+    }
 
-            Files.move(compactedTable.getIndexPath(), dirPath.resolve(SSTable.FIRST_INDEX_FILE), StandardCopyOption.ATOMIC_MOVE);
-            Files.move(compactedTable.getSavePath(), dirPath.resolve(SSTable.FIRST_SAVE_FILE), StandardCopyOption.ATOMIC_MOVE);
+    @Override
+    public void closeAndCompact() {
+        try {
+            compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
+    /**
+     * Waits for submitted async operations and background compaction, then flushes memory storage.
+     * Files still held by readers or by {@link #retainFiles} handles are not unmapped explicitly.
+     *
+     * @throws IOException is thrown when an I/O error occurs.
+     */
     @Override
     public void close() throws IOException {
+        readExecutor.shutdown();
+        writeExecutor.shutdown();
+        awaitTermination(writeExecutor, "async writes");
+        awaitTermination(readExecutor, "async reads");
+
+        synchronized (this) {
+            compactionScheduler.shutdown();
+        }
+        awaitTermination(compactionScheduler, "background compaction");
+
+        Lock lock = flushLock.writeLock();
+        lock.lock();
+        try {
+            flushAll();
+        } finally {
+            lock.unlock();
+        }
 
-        if (memoryConsumption > 0) {
-            flush();
+        compactionPool.shutdown();
+        ioExecutor.shutdown();
+
+        boolean readersLeft;
+        synchronized (this) {
+            tableSet.release();
+            readersLeft = !retiredTables.isEmpty() || ssTables.stream().anyMatch(SSTable::isReferenced);
+        }
+
+        if (readersLeft) {
+            // Values read before may still be views of the files, the garbage collector unmaps them after
+            LOG.debug("Files are still read, leaving them to be unmapped by the garbage collector");
+            deleteRetired();
+            return;
         }
 
         closeSSTables();
+        deleteRetired();
+        valueLog.close();
+    }
+
+    private static void awaitTermination(ExecutorService executor, String tasks) throws InterruptedIOException {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.info("Waiting for {} to finish", tasks);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + tasks);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
     private void closeSSTables() throws IOException {
@@ -122,69 +643,517 @@ public class DaoImpl implements DAO {
         }
     }
 
-    private Map<ByteBuffer, Record> map(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+    private static int stripeIndex(ByteBuffer key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
 
-        if (fromKey == null && toKey == null) {
-            return memoryStorage;
-        } else if (fromKey == null) {
-            return memoryStorage.headMap(toKey);
-        } else if (toKey == null) {
-            return memoryStorage.tailMap(fromKey);
-        } else {
-            return memoryStorage.subMap(fromKey, toKey);
+    /**
+     * Flushes the stripe unless another writer has already done it. Must be called under the flush read lock.
+     */
+    private void flushIfFull(MemoryStripe memoryStripe) throws IOException {
+        memoryStripe.lock();
+        try {
+            if (memoryStripe.isFull()) {
+                flush(List.of(memoryStripe));
+            }
+        } finally {
+            memoryStripe.unlock();
         }
     }
 
-    private void flush() throws IOException {
-        SSTable ssTable = SSTable.save(
-                memoryStorage.values().iterator(),
-                dirPath,
-                nextSSTableNumber++
-        );
+    /**
+     * Flushes all stripes into one table. Must be called under the flush write lock.
+     */
+    private void flushAll() throws IOException {
+        flush(Arrays.asList(memoryStripes));
+    }
+
+    /**
+     * Writes the stripes into one new table. Stripes are locked in order, writers of them wait meanwhile,
+     * so the records stay unchanged and readers keep finding them in memory until the table is installed.
+     */
+    private void flush(List<MemoryStripe> stripes) throws IOException {
+        for (MemoryStripe memoryStripe : stripes) {
+            memoryStripe.lock();
+        }
+
+        try {
+            List<Iterator<Record>> iterators = new ArrayList<>(stripes.size());
+            for (MemoryStripe memoryStripe : stripes) {
+                if (!memoryStripe.isEmpty()) {
+                    iterators.add(memoryStripe.records().values().iterator());
+                }
+            }
+
+            if (iterators.isEmpty()) {
+                return;
+            }
+
+            int fileNumber;
+            synchronized (this) {
+                fileNumber = nextSSTableNumber++;
+            }
+
+            SSTable ssTable = SSTable.save(merge(iterators), dirPath, fileNumber, verification, valueLog, ioExecutor);
+
+            synchronized (this) {
+                ssTables.add(ssTable);
+                publishTables();
+                for (MemoryStripe memoryStripe : stripes) {
+                    memoryStripe.reset();
+                }
+
+                scheduleCompactionIfNeeded();
+            }
+        } finally {
+            for (MemoryStripe memoryStripe : stripes) {
+                memoryStripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * Looks the key up in its memory stripe, then in tables from the newest one.
+     * The stripe and the tables are taken under the storage lock, so a concurrent flush can't hide the key.
+     */
+    @Nullable
+    private Record getFromStorage(ByteBuffer key) {
+        long version = rowCache == null ? 0 : rowCache.version(key);
+        MemoryStripe memoryStripe = memoryStripes[stripeIndex(key)];
+
+        SortedMap<ByteBuffer, Record> memoryRecords;
+        TableSet tables;
+        synchronized (this) {
+            memoryRecords = memoryStripe.records();
+            tables = tableSet.acquire();
+        }
+
+        Record record;
+        try {
+            record = memoryRecords.get(key);
+            if (record != null) {
+                return record;
+            }
+
+            List<SSTable> ssTableList = tables.tables();
+            for (int i = ssTableList.size() - 1; i >= 0 && record == null; i--) {
+                SSTable ssTable = ssTableList.get(i);
+
+                if (ssTable.mayContain(key)) {
+                    record = ssTable.get(key);
+                }
+            }
+        } finally {
+            tables.release();
+        }
+
+        if (rowCache != null) {
+            rowCache.put(key, record, version);
+        }
+
+        return record;
+    }
+
+    private List<SortedMap<ByteBuffer, Record>> memoryRecords() {
+        List<SortedMap<ByteBuffer, Record>> memoryRecords = new ArrayList<>(STRIPES);
+
+        for (MemoryStripe memoryStripe : memoryStripes) {
+            memoryRecords.add(memoryStripe.records());
+        }
+
+        return memoryRecords;
+    }
+
+    private static Iterator<Record> range(
+            List<SSTable> tables,
+            List<SortedMap<ByteBuffer, Record>> memoryRecords,
+            @Nullable ByteBuffer fromKey,
+            @Nullable ByteBuffer toKey,
+            boolean lazyValues
+    ) {
+        List<Iterator<Record>> iterators = new ArrayList<>(tables.size());
+
+        for (SSTable ssTable : tables) {
+            if (ssTable.intersects(fromKey, toKey)) {
+                iterators.add(ssTable.range(fromKey, toKey, lazyValues));
+            }
+        }
+
+        List<Iterator<Record>> memoryRanges = new ArrayList<>(memoryRecords.size());
+        for (SortedMap<ByteBuffer, Record> records : memoryRecords) {
+            memoryRanges.add(MemoryStripe.subMap(records, fromKey, toKey).values().iterator());
+        }
+
+        return filterTombstones(mergeTwo(merge(iterators), merge(memoryRanges)));
+    }
+
+    /**
+     * Merges tables that existed when it started into non-overlapping tables.
+     * Key space is split by sample keys of the tables and every part is merged on its own thread.
+     *
+     * <p>The storage lock is held only to take the tables and to swap them, so flushes, ingests
+     * and reads go on during the merge. Output numbers are reserved after running flushes are installed,
+     * so tables added meanwhile get larger numbers and stay newer than the merged ones.
+     *
+     * <p>Values in the value log are not copied. When all tables are merged, values from blob files
+     * that are mostly garbage are moved, then the blob files no longer referenced are deleted.
+     *
+     * @param all whether to merge all tables or only the ones chosen by {@link #compactionInputs()}.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    private void compactTables(boolean all) throws IOException {
+        synchronized (compactionLock) {
+            List<SSTable> inputs;
+            List<ByteBuffer> splitKeys;
+            int firstCompactedNumber;
+            int snapshotSize;
+
+            Lock lock = flushLock.writeLock();
+            lock.lock();
+            try {
+                synchronized (this) {
+                    if (all) {
+                        boolean compacted = ssTables.isEmpty()
+                                || ssTables.size() == 1 && ssTables.get(0).stats().getTombstoneCount() == 0;
+                        inputs = compacted ? List.of() : new ArrayList<>(ssTables);
+                    } else {
+                        inputs = compactionInputs();
+                    }
+
+                    if (inputs.isEmpty()) {
+                        return;
+                    }
+
+                    snapshotSize = ssTables.size();
+                    splitKeys = splitKeys(inputs, null, null, COMPACTION_PARALLELISM);
+
+                    firstCompactedNumber = nextSSTableNumber;
+                    nextSSTableNumber += splitKeys.size() + 1;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // other tables may refer to any blob file, so only a merge of all tables knows what is garbage
+            boolean collectsGarbage = inputs.size() == snapshotSize && !valueLog.isEmpty();
+            Map<Integer, Long> liveBlobBytes = collectsGarbage ? liveBlobBytes(inputs) : Map.of();
+            Set<Integer> garbageBlobFiles = collectsGarbage
+                    ? valueLog.collectGarbage(liveBlobBytes, firstCompactedNumber)
+                    : Set.of();
+
+            List<SSTable> compactedTables = compactParts(inputs, splitKeys, firstCompactedNumber);
+
+            synchronized (this) {
+                retiredTables.addAll(inputs);
+                SSTable.markCompaction(dirPath, tableNumbers(retiredTables));
 
-        ssTables.add(ssTable);
-        memoryStorage.clear();
+                // only compactions remove tables, so the tables taken are still first in the list
+                ssTables.subList(0, snapshotSize).removeAll(inputs);
+                ssTables.addAll(snapshotSize - inputs.size(), compactedTables);
+                publishTables();
 
+                if (collectsGarbage) {
+                    Set<Integer> retainedBlobFiles = new HashSet<>(liveBlobBytes.keySet());
+                    retainedBlobFiles.removeAll(garbageBlobFiles);
+                    retiredBlobFiles.addAll(valueLog.unusedFiles(retainedBlobFiles, firstCompactedNumber));
+                }
+                deleteRetiredBlobFiles();
+            }
+        }
+    }
+
+    /**
+     * Publishes the changed list of tables for readers, tables no longer in it are deleted
+     * when the readers of the previous list release it. Must be called under the storage lock.
+     */
+    private void publishTables() {
+        TableSet previous = tableSet;
+        tableSet = new TableSet(ssTables, this::retire);
+        previous.release();
     }
 
-    private Iterator<Record> ssTableRanges(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
-        List<Iterator<Record>> iterators = new ArrayList<>(ssTables.size());
+    /**
+     * Deletes table replaced by a compaction after its last reader, may be run on any thread.
+     */
+    private void retire(SSTable ssTable) {
+        synchronized (this) {
+            if (!retiredTables.remove(ssTable)) {
+                return;
+            }
+
+            try {
+                ssTable.deleteFiles();
+                deleteRetiredBlobFiles();
+            } catch (IOException e) {
+                LOG.error("Can't delete replaced table {}", ssTable.getSavePath(), e);
+            }
+        }
+    }
+
+    /**
+     * Deletes unused blob files once none of the tables that might refer to them is read,
+     * then nothing is left to finish after a restart. Must be called under the storage lock.
+     */
+    private void deleteRetiredBlobFiles() throws IOException {
+        if (!retiredTables.isEmpty()) {
+            return;
+        }
+
+        valueLog.delete(retiredBlobFiles);
+        retiredBlobFiles.clear();
+        SSTable.unmarkCompaction(dirPath);
+    }
+
+    /**
+     * Deletes files of replaced tables still held by readers when the storage is closed.
+     */
+    private void deleteRetired() throws IOException {
+        synchronized (this) {
+            for (SSTable ssTable : retiredTables) {
+                ssTable.deleteFiles();
+            }
+            retiredTables.clear();
+
+            deleteRetiredBlobFiles();
+        }
+    }
+
+    private static List<Integer> tableNumbers(Collection<SSTable> tables) {
+        List<Integer> numbers = new ArrayList<>(tables.size());
+
+        for (SSTable ssTable : tables) {
+            numbers.add(ssTable.getFileNumber());
+        }
+
+        return numbers;
+    }
+
+    /**
+     * Starts background compaction if tombstones make a large part of some table or of the whole storage.
+     * Flushes made while it runs are checked again when it ends. Must be called under the storage lock.
+     */
+    private void scheduleCompactionIfNeeded() {
+        if (compactionScheduler.isShutdown() || !needsCompaction()
+                || !compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        compactionScheduler.execute(() -> {
+            try {
+                compactTables(false);
+            } catch (IOException | UncheckedIOException e) {
+                LOG.error("Background compaction failed", e);
+            } finally {
+                compactionScheduled.set(false);
+            }
+
+            synchronized (this) {
+                scheduleCompactionIfNeeded();
+            }
+        });
+    }
+
+    private boolean needsCompaction() {
+        boolean manyDeadBytes = hasManyDeadBytes();
 
         for (SSTable ssTable : ssTables) {
-            iterators.add(ssTable.range(fromKey, toKey));
+            if (hasManyTombstones(ssTable.stats(), manyDeadBytes)) {
+                return true;
+            }
         }
-        return merge(iterators);
+
+        return false;
     }
 
-    private int sizeOf(Record record) {
-        return record.getKey().remaining()
-                + (record.isTombstone() ? 0 : record.getKey().remaining()) + Integer.BYTES * 2;
+    /**
+     * Chooses tables with many tombstones and every table whose key range overlaps a chosen one, repeatedly,
+     * so no older record of a key stays outside the merge when its tombstone is dropped.
+     * Must be called under the storage lock.
+     *
+     * @return chosen tables from the oldest to the newest.
+     */
+    private List<SSTable> compactionInputs() {
+        boolean manyDeadBytes = hasManyDeadBytes();
+        boolean[] chosen = new boolean[ssTables.size()];
+        List<SSTable> added = new ArrayList<>();
+
+        for (int i = 0; i < chosen.length; i++) {
+            if (hasManyTombstones(ssTables.get(i).stats(), manyDeadBytes)) {
+                chosen[i] = true;
+                added.add(ssTables.get(i));
+            }
+        }
+
+        while (!added.isEmpty()) {
+            SSTable ssTable = added.remove(added.size() - 1);
+
+            for (int i = 0; i < chosen.length; i++) {
+                if (!chosen[i] && ssTables.get(i).overlaps(ssTable)) {
+                    chosen[i] = true;
+                    added.add(ssTables.get(i));
+                }
+            }
+        }
+
+        List<SSTable> inputs = new ArrayList<>();
+        for (int i = 0; i < chosen.length; i++) {
+            if (chosen[i]) {
+                inputs.add(ssTables.get(i));
+            }
+        }
+
+        return inputs;
+    }
+
+    /**
+     * Checks whether tombstones of all tables together hide much data, then every table with tombstones
+     * is worth compacting.
+     */
+    private boolean hasManyDeadBytes() {
+        long records = 0;
+        long tombstones = 0;
+        long bytes = 0;
+
+        for (SSTable ssTable : ssTables) {
+            TableStats stats = ssTable.stats();
+
+            records += stats.getRecordCount();
+            tombstones += stats.getTombstoneCount();
+            bytes += stats.getDataSize() + stats.getBlobBytes();
+        }
+
+        return records > 0 && tombstones * (bytes / records) >= DEAD_BYTES_LIMIT;
+    }
+
+    private static boolean hasManyTombstones(TableStats stats, boolean manyDeadBytes) {
+        return stats.getTombstoneRatio() >= TOMBSTONE_RATIO_LIMIT
+                || manyDeadBytes && stats.getTombstoneCount() > 0;
     }
 
-    private void closeOldTables(String indexFile, String saveFile) throws IOException {
-        List<SSTable> filteredSSTables = ssTables.stream()
-                .filter(ssTable1 -> checkFilesNameEquals(ssTable1.getIndexPath(), indexFile) &&
-                        checkFilesNameEquals(ssTable1.getSavePath(), saveFile))
-                .collect(Collectors.toList());
+    /**
+     * Merges tables without reading values from the value log, tombstones are skipped.
+     */
+    private static MergeCursor rawMerge(
+            List<SSTable> tables,
+            @Nullable ByteBuffer fromKey,
+            @Nullable ByteBuffer toKey
+    ) {
+        List<RecordCursor> cursors = new ArrayList<>(tables.size());
+
+        for (SSTable ssTable : tables) {
+            if (ssTable.intersects(fromKey, toKey)) {
+                cursors.add(ssTable.rawCursor(fromKey, toKey));
+            }
+        }
+
+        return new MergeCursor(cursors);
+    }
+
+    private static Map<Integer, Long> liveBlobBytes(List<SSTable> tables) {
+        Map<Integer, Long> liveBytes = new HashMap<>();
+        MergeCursor cursor = rawMerge(tables, null, null);
 
-        for (SSTable filteredSSTable : filteredSSTables) {
-            filteredSSTable.close();
+        while (cursor.next()) {
+            if (cursor.isBlobPointer()) {
+                ValueLog.countLive(cursor.value(), liveBytes);
+            }
         }
+
+        return liveBytes;
     }
 
-    private void deleteOldTables(String indexFile, String saveFile) throws IOException {
-        try (Stream<Path> paths = Files.walk(dirPath)) {
-            paths.filter(Files::isRegularFile)
-                    .map(Path::toFile)
-                    .filter(file -> file.getName().compareTo(indexFile) != 0 && file.getName().compareTo(saveFile) != 0)
-                    .forEach(File::delete);
+    private List<SSTable> compactParts(List<SSTable> inputs, List<ByteBuffer> splitKeys, int firstFileNumber)
+            throws IOException {
+        List<ForkJoinTask<SSTable>> tasks = new ArrayList<>(splitKeys.size() + 1);
+
+        for (int i = 0; i <= splitKeys.size(); i++) {
+            ByteBuffer fromKey = i == 0 ? null : splitKeys.get(i - 1);
+            ByteBuffer toKey = i == splitKeys.size() ? null : splitKeys.get(i);
+            int fileNumber = firstFileNumber + i;
+
+            tasks.add(compactionPool.submit(
+                    () -> SSTable.save(
+                            rawMerge(inputs, fromKey, toKey), dirPath, fileNumber, verification, valueLog, ioExecutor)
+            ));
+        }
+
+        List<SSTable> compactedTables = new ArrayList<>(tasks.size());
+        IOException exception = null;
+
+        for (ForkJoinTask<SSTable> task : tasks) {
+            try {
+                compactedTables.add(task.get());
+            } catch (ExecutionException e) {
+                exception = exception == null ? new IOException("Compaction failed", e.getCause()) : exception;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exception = exception == null ? new IOException("Compaction interrupted", e) : exception;
+            }
+        }
+
+        List<SSTable> nonEmptyTables = new ArrayList<>(compactedTables.size());
+
+        for (SSTable compactedTable : compactedTables) {
+            if (exception != null || compactedTable.isEmpty()) {
+                compactedTable.delete();
+            } else {
+                nonEmptyTables.add(compactedTable);
+            }
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+
+        return nonEmptyTables;
+    }
+
+    private static boolean isIntact(SSTable ssTable) {
+        try {
+            ssTable.verifyChecksums();
+            return true;
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static List<ByteBuffer> splitKeys(
+            List<SSTable> tables,
+            @Nullable ByteBuffer fromKey,
+            @Nullable ByteBuffer toKey,
+            int parts
+    ) {
+        SortedSet<ByteBuffer> samples = new TreeSet<>();
+
+        for (SSTable ssTable : tables) {
+            samples.addAll(ssTable.sampleKeys(fromKey, toKey, parts * SAMPLES_PER_PARTITION));
+        }
+
+        List<ByteBuffer> sortedSamples = new ArrayList<>(samples);
+        List<ByteBuffer> splitKeys = new ArrayList<>(parts - 1);
+
+        for (int i = 1; i < parts && !sortedSamples.isEmpty(); i++) {
+            ByteBuffer splitKey = sortedSamples.get(i * sortedSamples.size() / parts);
+
+            if (splitKeys.isEmpty() || splitKeys.get(splitKeys.size() - 1).compareTo(splitKey) < 0) {
+                splitKeys.add(splitKey);
+            }
         }
 
-        ssTables.clear();
+        return splitKeys;
     }
 
-    private boolean checkFilesNameEquals(Path filePath, String fileToCompare) {
-        return filePath.toString().compareTo(fileToCompare) != 0;
+    private static Iterator<Record> filterTombstones(Iterator<Record> iterator) {
+        return StreamSupport
+                .stream(
+                        Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED),
+                        false
+                )
+                .filter(record -> !record.isTombstone())
+                .iterator();
     }
 
     /**
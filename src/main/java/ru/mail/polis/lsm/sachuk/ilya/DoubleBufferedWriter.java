@@ -0,0 +1,141 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Appends to a file through two direct buffers: one is filled by the caller
+ * while the other one is written to the file on the I/O executor.
+ */
+final class DoubleBufferedWriter implements Closeable {
+
+    private final FileChannel fileChannel;
+    private final Executor ioExecutor;
+
+    private ByteBuffer current;
+    private ByteBuffer spare;
+    private Future<?> pendingWrite = CompletableFuture.completedFuture(null);
+    private long position;
+
+    DoubleBufferedWriter(FileChannel fileChannel, Executor ioExecutor, int bufferSize) {
+        this.fileChannel = fileChannel;
+        this.ioExecutor = ioExecutor;
+        this.current = ByteBuffer.allocateDirect(bufferSize);
+        this.spare = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns number of bytes appended so far, including the ones still buffered.
+     *
+     * @return position in file.
+     */
+    long position() {
+        return position;
+    }
+
+    void putInt(int value) throws IOException {
+        if (current.remaining() < Integer.BYTES) {
+            swap();
+        }
+
+        current.putInt(value);
+        position += Integer.BYTES;
+    }
+
+    void putLong(long value) throws IOException {
+        if (current.remaining() < Long.BYTES) {
+            swap();
+        }
+
+        current.putLong(value);
+        position += Long.BYTES;
+    }
+
+    void put(ByteBuffer source) throws IOException {
+        ByteBuffer data = source.duplicate();
+
+        while (data.hasRemaining()) {
+            if (!current.hasRemaining()) {
+                swap();
+            }
+
+            int limit = data.limit();
+            data.limit(data.position() + Math.min(data.remaining(), current.remaining()));
+
+            position += data.remaining();
+            current.put(data);
+
+            data.limit(limit);
+        }
+    }
+
+    /**
+     * Writes all buffered bytes and waits until they reach the file.
+     *
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    void flush() throws IOException {
+        swap();
+        awaitPendingWrite();
+    }
+
+    /**
+     * Waits for the pending write and frees the buffers. If the wait is interrupted, the buffer
+     * being written is left to the garbage collector, because the I/O executor may still read it.
+     *
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            awaitPendingWrite();
+        } finally {
+            MappedFile.clean(current);
+            if (pendingWrite.isDone()) {
+                MappedFile.clean(spare);
+            }
+        }
+    }
+
+    private void swap() throws IOException {
+        ByteBuffer full = current;
+        full.flip();
+
+        awaitPendingWrite();
+
+        CompletableFuture<Void> write = new CompletableFuture<>();
+        ioExecutor.execute(() -> {
+            try {
+                while (full.hasRemaining()) {
+                    fileChannel.write(full);
+                }
+                write.complete(null);
+            } catch (IOException e) {
+                write.completeExceptionally(e);
+            }
+        });
+        pendingWrite = write;
+
+        current = spare;
+        current.clear();
+        spare = full;
+    }
+
+    private void awaitPendingWrite() throws IOException {
+        try {
+            pendingWrite.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing");
+        } catch (ExecutionException e) {
+            throw new IOException("Write failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Layout of a table index, detected when the index is read.
+ *
+ * <p>Versions of the index:
+ * <ol start="0">
+ *     <li>{@code [int count]}, then {@code [int offset]} per record;</li>
+ *     <li>{@code [int count]}, then {@code [long offset][long key prefix]} per record;</li>
+ *     <li>{@code [long offset][long key prefix][int checksum]} per record, {@code [int count][int checksum]};</li>
+ *     <li>entries of version 2, statistics of the table, {@code [int count][int version][int magic][int checksum]}.
+ *     </li>
+ * </ol>
+ * Indexes written before the version was stored end with {@code [int count][int checksum]} instead
+ * and are told apart by their sizes. Versions 0 and 1 start with the record count and differ by the size
+ * of their entries: later ones start with offset 0 of the first record or with the statistics of an empty table,
+ * both beginning with zero int. Key prefixes of version 0 are computed from the keys when the table is loaded.
+ */
+final class IndexFormat {
+
+    static final int VERSION = 3;
+    static final int MAGIC = 0x494E4458;
+
+    private static final int OFFSET_ENTRY_SIZE = Integer.BYTES;
+    private static final int UNCHECKED_ENTRY_SIZE = Long.BYTES * 2;
+    private static final int LEGACY_FOOTER_SIZE = Integer.BYTES * 2;
+    private static final int FOOTER_SIZE = Integer.BYTES * 4;
+
+    final int version;
+
+    /**
+     * Whether the index ends with the version and the magic number.
+     */
+    final boolean versioned;
+    final int count;
+    final int entrySize;
+    final long entriesStart;
+
+    /**
+     * Position after the statistics, where the record count is, or the end of the index of version 1.
+     */
+    final long statsEnd;
+
+    private IndexFormat(int version, boolean versioned, int count, int entrySize, long entriesStart, long statsEnd) {
+        this.version = version;
+        this.versioned = versioned;
+        this.count = count;
+        this.entrySize = entrySize;
+        this.entriesStart = entriesStart;
+        this.statsEnd = statsEnd;
+    }
+
+    /**
+     * Detects layout of the index.
+     *
+     * @param path   is path of the index, for errors.
+     * @param size   is size of the index.
+     * @param reader reads ints of the index.
+     * @return layout of the index.
+     * @throws IOException if the index is malformed or written by a newer version.
+     */
+    static IndexFormat read(Path path, long size, IntReader reader) throws IOException {
+        if (size >= Integer.BYTES) {
+            int count = reader.getInt(0);
+
+            if (count >= 0 && size == Integer.BYTES + (long) count * OFFSET_ENTRY_SIZE) {
+                return new IndexFormat(0, false, count, OFFSET_ENTRY_SIZE, Integer.BYTES, size);
+            }
+
+            if (count >= 0 && size == Integer.BYTES + (long) count * UNCHECKED_ENTRY_SIZE) {
+                return new IndexFormat(1, false, count, UNCHECKED_ENTRY_SIZE, Integer.BYTES, size);
+            }
+        }
+
+        if (size < LEGACY_FOOTER_SIZE) {
+            throw new IOException("Malformed index " + path);
+        }
+
+        long countPosition = size - LEGACY_FOOTER_SIZE;
+        boolean versioned = size >= FOOTER_SIZE && reader.getInt(size - Integer.BYTES * 2) == MAGIC;
+
+        if (versioned) {
+            int version = reader.getInt(size - Integer.BYTES * 3);
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of index " + path);
+            }
+
+            countPosition = size - FOOTER_SIZE;
+        }
+
+        int count = reader.getInt(countPosition);
+        long entriesSize = (long) count * SSTable.INDEX_ENTRY_SIZE;
+
+        if (!versioned && count >= 0 && entriesSize == countPosition) {
+            return new IndexFormat(2, false, count, SSTable.INDEX_ENTRY_SIZE, 0, countPosition);
+        }
+
+        if (count < 0 || entriesSize + SSTable.STATS_FIXED_SIZE > countPosition) {
+            throw new IOException("Malformed index " + path);
+        }
+
+        return new IndexFormat(VERSION, versioned, count, SSTable.INDEX_ENTRY_SIZE, 0, countPosition);
+    }
+
+    boolean hasKeyPrefixes() {
+        return version >= 1;
+    }
+
+    boolean hasChecksums() {
+        return version >= 2;
+    }
+
+    boolean hasStats() {
+        return version >= 3;
+    }
+
+    long entriesEnd() {
+        return entriesStart + (long) count * entrySize;
+    }
+
+    @FunctionalInterface
+    interface IntReader {
+        int getInt(long position) throws IOException;
+    }
+}
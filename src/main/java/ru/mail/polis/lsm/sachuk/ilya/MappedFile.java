@@ -0,0 +1,244 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Checksum;
+
+/**
+ * Read-only file mapped by segments, so it may be larger than a single {@link MappedByteBuffer}.
+ * Bytes inside one segment are returned as views of the mapping, bytes crossing segments are copied.
+ */
+final class MappedFile implements Closeable {
+
+    static final int SEGMENT_SIZE = 1 << 30;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final MappedByteBuffer[] segments;
+    private final int segmentShift;
+    private final long size;
+
+    private MappedFile(MappedByteBuffer[] segments, int segmentShift, long size) {
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+        this.size = size;
+    }
+
+    static MappedFile map(Path path) throws IOException {
+        return map(path, SEGMENT_SIZE);
+    }
+
+    /**
+     * Maps file by segments of the given size.
+     *
+     * @param path        is path to file.
+     * @param segmentSize is power of two size of segment.
+     * @return mapped file.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    static MappedFile map(Path path, int segmentSize) throws IOException {
+        if (Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("Segment size must be a power of two: " + segmentSize);
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            int count = (int) ((size + segmentSize - 1) / segmentSize);
+
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+
+            for (int i = 0; i < count; i++) {
+                long position = (long) i * segmentSize;
+
+                segments[i] = fileChannel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        position,
+                        Math.min(segmentSize, size - position)
+                );
+            }
+
+            return new MappedFile(segments, Integer.numberOfTrailingZeros(segmentSize), size);
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    byte getByte(long position) {
+        return segments[segmentIndex(position)].get(segmentOffset(position));
+    }
+
+    int getInt(long position) {
+        MappedByteBuffer segment = segments[segmentIndex(position)];
+        int offset = segmentOffset(position);
+
+        if (offset + Integer.BYTES <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+
+        return slice(position, Integer.BYTES).getInt();
+    }
+
+    long getLong(long position) {
+        MappedByteBuffer segment = segments[segmentIndex(position)];
+        int offset = segmentOffset(position);
+
+        if (offset + Long.BYTES <= segment.limit()) {
+            return segment.getLong(offset);
+        }
+
+        return slice(position, Long.BYTES).getLong();
+    }
+
+    /**
+     * Returns read-only buffer with {@code length} bytes starting at {@code position}.
+     *
+     * @param position is position in file.
+     * @param length   is number of bytes.
+     * @return view of the mapping or a copy if bytes cross segments.
+     */
+    ByteBuffer slice(long position, int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+
+        MappedByteBuffer segment = segments[segmentIndex(position)];
+        int offset = segmentOffset(position);
+
+        if (offset + length <= segment.limit()) {
+            return segment.duplicate()
+                    .position(offset)
+                    .limit(offset + length)
+                    .slice()
+                    .asReadOnlyBuffer();
+        }
+
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        long currentPosition = position;
+
+        while (copy.hasRemaining()) {
+            ByteBuffer source = segments[segmentIndex(currentPosition)].duplicate();
+            int sourceOffset = segmentOffset(currentPosition);
+            int bytes = Math.min(copy.remaining(), source.limit() - sourceOffset);
+
+            source.position(sourceOffset).limit(sourceOffset + bytes);
+            copy.put(source);
+
+            currentPosition += bytes;
+        }
+
+        return copy.flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Feeds {@code length} bytes starting at {@code position} to the checksum without copying them.
+     *
+     * @param checksum is checksum to update.
+     * @param position is position in file.
+     * @param length   is number of bytes.
+     */
+    void updateChecksum(Checksum checksum, long position, long length) {
+        long currentPosition = position;
+        long end = position + length;
+
+        while (currentPosition < end) {
+            MappedByteBuffer segment = segments[segmentIndex(currentPosition)];
+            int offset = segmentOffset(currentPosition);
+            int bytes = (int) Math.min(end - currentPosition, segment.limit() - offset);
+
+            checksum.update(segment.duplicate().position(offset).limit(offset + bytes));
+
+            currentPosition += bytes;
+        }
+    }
+
+    View view() {
+        return new View();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] != null) {
+                clean(segments[i]);
+                segments[i] = null;
+            }
+        }
+    }
+
+    private int segmentIndex(long position) {
+        return (int) (position >>> segmentShift);
+    }
+
+    private int segmentOffset(long position) {
+        return (int) (position & ((1L << segmentShift) - 1));
+    }
+
+    /**
+     * Frees memory of a direct buffer or unmaps a mapped one without waiting for GC.
+     *
+     * @param buffer is direct buffer that must not be used after the call.
+     * @throws IOException if the buffer can't be freed.
+     */
+    static void clean(ByteBuffer buffer) throws IOException {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            Object unsafe = unsafeField.get(null);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(unsafe, buffer);
+        } catch (ClassNotFoundException | NoSuchFieldException | NoSuchMethodException
+                | IllegalAccessException | InvocationTargetException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reusable window of the file, moving it inside one segment doesn't allocate.
+     */
+    final class View {
+        private ByteBuffer buffer;
+        private int segment = -1;
+
+        /**
+         * Points the window at {@code length} bytes starting at {@code position}.
+         *
+         * @param position is position in file.
+         * @param length   is number of bytes.
+         * @return the window or a copy if bytes cross segments.
+         */
+        ByteBuffer move(long position, int length) {
+            if (length == 0) {
+                return EMPTY;
+            }
+
+            int index = segmentIndex(position);
+            int offset = segmentOffset(position);
+
+            if (offset + length > segments[index].limit()) {
+                return slice(position, length);
+            }
+
+            if (segment != index) {
+                buffer = segments[index].asReadOnlyBuffer();
+                segment = index;
+            }
+
+            buffer.clear();
+            buffer.limit(offset + length);
+            buffer.position(offset);
+
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import ru.mail.polis.lsm.Record;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Part of memory storage for keys with the same hash remainder, with its own size and flush threshold.
+ *
+ * <p>Writers lock only their stripe. A flush holds the locks of the stripes it writes until the table
+ * is installed, then replaces the records with an empty map instead of clearing them,
+ * so iterators opened before the flush keep reading the old map.
+ */
+final class MemoryStripe {
+
+    private final long limit;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile SortedMap<ByteBuffer, Record> records = new ConcurrentSkipListMap<>();
+    private volatile long size;
+
+    MemoryStripe(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Puts the record, replaced record of the same key is no longer counted.
+     *
+     * @param record is record.
+     * @return {@code true} if the stripe is over its limit and should be flushed.
+     */
+    boolean put(Record record) {
+        lock.lock();
+        try {
+            Record previous = records.put(record.getKey(), record);
+
+            size += sizeOf(record) - (previous == null ? 0 : sizeOf(previous));
+
+            return size > limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Checks whether the stripe is still over its limit, must be called under the stripe lock.
+     *
+     * @return {@code true} if the stripe should be flushed.
+     */
+    boolean isFull() {
+        return size > limit;
+    }
+
+    boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    SortedMap<ByteBuffer, Record> records() {
+        return records;
+    }
+
+    SortedMap<ByteBuffer, Record> records(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return subMap(records, fromKey, toKey);
+    }
+
+    /**
+     * Returns records of the map in {@code [fromKey, toKey)}, a range with {@code fromKey} not before
+     * {@code toKey} has no records.
+     */
+    static SortedMap<ByteBuffer, Record> subMap(
+            SortedMap<ByteBuffer, Record> snapshot,
+            @Nullable ByteBuffer fromKey,
+            @Nullable ByteBuffer toKey
+    ) {
+        if (fromKey == null && toKey == null) {
+            return snapshot;
+        } else if (fromKey != null && toKey != null && fromKey.compareTo(toKey) >= 0) {
+            return Collections.emptySortedMap();
+        } else if (fromKey == null) {
+            return snapshot.headMap(toKey);
+        } else if (toKey == null) {
+            return snapshot.tailMap(fromKey);
+        } else {
+            return snapshot.subMap(fromKey, toKey);
+        }
+    }
+
+    /**
+     * Sums sizes of records in {@code [fromKey, toKey)}, the whole stripe is answered by its counter.
+     * A range is walked, which is bounded by the flush limit of the stripe.
+     *
+     * @param fromKey is first key, inclusive.
+     * @param toKey   is last key, exclusive.
+     * @return size in bytes.
+     */
+    long approximateSize(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        if (fromKey == null && toKey == null) {
+            return size;
+        }
+
+        long bytes = 0;
+        for (Record record : records(fromKey, toKey).values()) {
+            bytes += sizeOf(record);
+        }
+
+        return bytes;
+    }
+
+    long approximateCount(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return records(fromKey, toKey).size();
+    }
+
+    /**
+     * Starts a new map after the records were flushed, must be called under the stripe lock.
+     */
+    void reset() {
+        records = new ConcurrentSkipListMap<>();
+        size = 0;
+    }
+
+    private static long sizeOf(Record record) {
+        return record.getKeySize() + record.getValueSize() + Integer.BYTES * 2L;
+    }
+}
@@ -0,0 +1,138 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import ru.mail.polis.lsm.Record;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Publishes records of a range on an executor as far as subscribers request them.
+ *
+ * <p>The range is opened on the first request of each subscription and closed by the drain task
+ * when the subscription ends, so its tables are released without waiting for the garbage collector.
+ * Only one drain task of a subscription runs at a time: a request or a cancel schedules it only
+ * when there was no demand left, and the task exits only after it has taken all demand back to zero.
+ * When the executor rejects the task, the subscription ends with the rejection.
+ */
+final class RangePublisher implements Flow.Publisher<Record> {
+
+    private final Supplier<TableSet.ReleasingIterator<Record>> range;
+    private final Executor executor;
+
+    RangePublisher(Supplier<TableSet.ReleasingIterator<Record>> range, Executor executor) {
+        this.range = range;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Record> subscriber) {
+        Objects.requireNonNull(subscriber);
+        subscriber.onSubscribe(new RangeSubscription(subscriber));
+    }
+
+    private final class RangeSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Record> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+
+        private volatile boolean done;
+        private volatile boolean invalidRequest;
+        private TableSet.ReleasingIterator<Record> iterator;
+
+        private RangeSubscription(Flow.Subscriber<? super Record> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // Reported by the drain task, so it can't overlap with onNext
+                invalidRequest = true;
+            }
+
+            long previous = demand.getAndAccumulate(Math.max(n, 1), (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+
+            if (previous == 0 && !done) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // No drain task is running, so the subscriber is signalled here
+                    done = true;
+                    close();
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+
+            if (demand.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    close();
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                long requested = demand.get();
+
+                while (requested > 0) {
+                    long sent = 0;
+
+                    while (sent < requested) {
+                        if (done) {
+                            close();
+                            return;
+                        }
+
+                        if (invalidRequest) {
+                            done = true;
+                            close();
+                            subscriber.onError(new IllegalArgumentException("Non-positive request"));
+                            return;
+                        }
+
+                        if (iterator == null) {
+                            iterator = range.get();
+                        }
+
+                        if (!iterator.hasNext()) {
+                            done = true;
+                            subscriber.onComplete();
+                            return;
+                        }
+
+                        subscriber.onNext(iterator.next());
+                        sent++;
+                    }
+
+                    requested = demand.addAndGet(-sent);
+                }
+            } catch (RuntimeException e) {
+                close();
+
+                if (!done) {
+                    done = true;
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        private void close() {
+            if (iterator != null) {
+                iterator.close();
+            }
+        }
+    }
+}
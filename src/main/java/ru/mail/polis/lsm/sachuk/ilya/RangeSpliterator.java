@@ -0,0 +1,122 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import ru.mail.polis.lsm.Record;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Splits a key range by sample keys of tables, every part merges its own subrange.
+ *
+ * <p>A part is split in the middle of its split keys and returns the lower half, so parts keep the key order.
+ * The merge of a part is opened on its first record, after that the part is no longer split.
+ */
+final class RangeSpliterator implements Spliterator<Record> {
+
+    private static final Comparator<Record> KEY_ORDER = Comparator.comparing(Record::getKey);
+
+    private final BiFunction<ByteBuffer, ByteBuffer, Iterator<Record>> range;
+    @Nullable
+    private final ByteBuffer toKey;
+
+    @Nullable
+    private ByteBuffer fromKey;
+    private List<ByteBuffer> splitKeys;
+    private long estimatedSize;
+    private Iterator<Record> iterator;
+
+    /**
+     * Creates part of a range.
+     *
+     * @param range         is merge of records in {@code [fromKey, toKey)} without tombstones.
+     * @param fromKey       is first key, inclusive.
+     * @param toKey         is last key, exclusive.
+     * @param splitKeys     is sorted keys inside the range to split it by.
+     * @param estimatedSize is approximate number of records in the range.
+     */
+    RangeSpliterator(
+            BiFunction<ByteBuffer, ByteBuffer, Iterator<Record>> range,
+            @Nullable ByteBuffer fromKey,
+            @Nullable ByteBuffer toKey,
+            List<ByteBuffer> splitKeys,
+            long estimatedSize
+    ) {
+        this.range = range;
+        this.fromKey = fromKey;
+        this.toKey = toKey;
+        this.splitKeys = splitKeys;
+        this.estimatedSize = estimatedSize;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Record> action) {
+        Iterator<Record> records = iterator();
+
+        if (!records.hasNext()) {
+            return false;
+        }
+
+        action.accept(records.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Record> action) {
+        iterator().forEachRemaining(action);
+    }
+
+    @Nullable
+    @Override
+    public Spliterator<Record> trySplit() {
+        if (iterator != null || splitKeys.isEmpty()) {
+            return null;
+        }
+
+        int middle = splitKeys.size() / 2;
+        ByteBuffer splitKey = splitKeys.get(middle);
+        long prefixSize = estimatedSize / 2;
+
+        Spliterator<Record> prefix = new RangeSpliterator(
+                range,
+                fromKey,
+                splitKey,
+                splitKeys.subList(0, middle),
+                prefixSize
+        );
+
+        fromKey = splitKey;
+        splitKeys = splitKeys.subList(middle + 1, splitKeys.size());
+        estimatedSize -= prefixSize;
+
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SORTED | NONNULL;
+    }
+
+    @Override
+    public Comparator<? super Record> getComparator() {
+        return KEY_ORDER;
+    }
+
+    private Iterator<Record> iterator() {
+        if (iterator == null) {
+            iterator = range.apply(fromKey, toKey);
+        }
+
+        return iterator;
+    }
+}
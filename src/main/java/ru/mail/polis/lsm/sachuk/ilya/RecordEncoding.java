@@ -0,0 +1,249 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoding of table records.
+ *
+ * <p>Records are {@code [byte header][varint key size][key]} followed by {@code [varint value size][value]},
+ * by {@link ValueLog#POINTER_SIZE} bytes of a pointer to the value log, or by nothing for a tombstone.
+ * The header is {@code 1vvvrrpt}: the high bit is always set, {@code vvv} is the encoding version,
+ * {@code t} marks a tombstone, {@code p} a pointer, and the {@code rr} bits are reserved for flags
+ * like TTL and must be zero.
+ *
+ * <p>Tables written before have legacy records {@code [int key size][key][int value size][value]}
+ * where a tombstone is the value {@code NULL_VALUE} and a pointer has the value size {@code -1}.
+ * The first byte of a legacy record is the high byte of a non-negative size, so its high bit is clear
+ * and the two encodings are told apart by the first byte. Legacy records are only read,
+ * compaction rewrites them in the current encoding.
+ */
+final class RecordEncoding {
+
+    static final int TOMBSTONE = 0x01;
+    static final int POINTER = 0x02;
+
+    static final int MAX_VARINT_SIZE = 5;
+
+    private static final int VERSION = 1;
+    private static final int HEADER_MARK = 0x80;
+    private static final int VERSION_SHIFT = 4;
+    private static final int VERSION_MASK = 0x70;
+    private static final int RESERVED_MASK = 0x0C;
+    private static final int VARINT_BITS = 7;
+    private static final int VARINT_MORE = 0x80;
+
+    private static final int LEGACY_POINTER_SIZE = -1;
+    private static final ByteBuffer LEGACY_TOMBSTONE = ByteBuffer.wrap("NULL_VALUE".getBytes(StandardCharsets.UTF_8))
+            .asReadOnlyBuffer();
+
+    private RecordEncoding() {
+    }
+
+    static byte header(int flags) {
+        return (byte) (HEADER_MARK | VERSION << VERSION_SHIFT | flags);
+    }
+
+    static boolean isLegacy(int firstByte) {
+        return (firstByte & HEADER_MARK) == 0;
+    }
+
+    static boolean isSupported(int header) {
+        return (header & VERSION_MASK) == VERSION << VERSION_SHIFT && (header & RESERVED_MASK) == 0;
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        int rest = value;
+
+        while ((rest & ~(VARINT_MORE - 1)) != 0) {
+            buffer.put((byte) (rest & (VARINT_MORE - 1) | VARINT_MORE));
+            rest >>>= VARINT_BITS;
+        }
+
+        buffer.put((byte) rest);
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+
+        for (int rest = value >>> VARINT_BITS; rest != 0; rest >>>= VARINT_BITS) {
+            size++;
+        }
+
+        return size;
+    }
+
+    static int readVarint(MappedFile file, long position) {
+        int value = 0;
+
+        for (int i = 0; i < MAX_VARINT_SIZE; i++) {
+            int b = file.getByte(position + i);
+            value |= (b & (VARINT_MORE - 1)) << (VARINT_BITS * i);
+
+            if ((b & VARINT_MORE) == 0) {
+                return value;
+            }
+        }
+
+        throw new UncheckedIOException(new IOException("Malformed size at " + position));
+    }
+
+    static int readVarint(DataInput input) throws IOException {
+        int value = 0;
+
+        for (int i = 0; i < MAX_VARINT_SIZE; i++) {
+            int b = input.readUnsignedByte();
+            value |= (b & (VARINT_MORE - 1)) << (VARINT_BITS * i);
+
+            if ((b & VARINT_MORE) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed size");
+    }
+
+    /**
+     * Returns key of the record without decoding the rest of it.
+     *
+     * @param file     is table file.
+     * @param position is position of the record.
+     * @return view of the key.
+     */
+    static ByteBuffer key(MappedFile file, long position) {
+        if (isLegacy(file.getByte(position))) {
+            return file.slice(position + Integer.BYTES, file.getInt(position));
+        }
+
+        int keySize = readVarint(file, position + 1);
+        return file.slice(position + 1 + varintSize(keySize), keySize);
+    }
+
+    /**
+     * Skips record of the stream.
+     *
+     * @param input  is stream positioned at a record.
+     * @param buffer is buffer for skipped bytes.
+     * @return size of the record.
+     * @throws IOException if the record is malformed or the stream ends.
+     */
+    static long skip(DataInput input, byte[] buffer) throws IOException {
+        int first = input.readUnsignedByte();
+
+        if (isLegacy(first)) {
+            int keySize = first << 24 | input.readUnsignedByte() << 16 | input.readUnsignedShort();
+            skipFully(input, keySize, buffer);
+
+            int valueSize = input.readInt();
+            int storedSize = valueSize == LEGACY_POINTER_SIZE ? ValueLog.POINTER_SIZE : valueSize;
+            skipFully(input, storedSize, buffer);
+
+            return Integer.BYTES * 2L + keySize + storedSize;
+        }
+
+        if (!isSupported(first)) {
+            throw new IOException("Unsupported record header " + first);
+        }
+
+        int keySize = readVarint(input);
+        skipFully(input, keySize, buffer);
+        long size = 1L + varintSize(keySize) + keySize;
+
+        if ((first & TOMBSTONE) != 0) {
+            return size;
+        }
+
+        if ((first & POINTER) != 0) {
+            skipFully(input, ValueLog.POINTER_SIZE, buffer);
+            return size + ValueLog.POINTER_SIZE;
+        }
+
+        int valueSize = readVarint(input);
+        skipFully(input, valueSize, buffer);
+
+        return size + varintSize(valueSize) + valueSize;
+    }
+
+    static void skipFully(DataInput input, int length, byte[] buffer) throws IOException {
+        if (length < 0) {
+            throw new EOFException();
+        }
+
+        int left = length;
+        while (left > 0) {
+            int bytes = Math.min(left, buffer.length);
+            input.readFully(buffer, 0, bytes);
+            left -= bytes;
+        }
+    }
+
+    /**
+     * Positions of parts of a record, reused by readers to decode records of both encodings.
+     */
+    static final class Layout {
+        long keyPosition;
+        int keySize;
+        long valuePosition;
+
+        /**
+         * Number of stored value bytes: the value, the pointer, or none for a tombstone.
+         */
+        int valueSize;
+        boolean tombstone;
+        boolean pointer;
+        long end;
+
+        void read(MappedFile file, long position) {
+            int header = file.getByte(position);
+
+            if (isLegacy(header)) {
+                readLegacy(file, position);
+                return;
+            }
+
+            if (!isSupported(header)) {
+                throw new UncheckedIOException(
+                        new IOException("Unsupported record header " + (header & 0xFF) + " at " + position)
+                );
+            }
+
+            keySize = readVarint(file, position + 1);
+            keyPosition = position + 1 + varintSize(keySize);
+            tombstone = (header & TOMBSTONE) != 0;
+            pointer = (header & POINTER) != 0;
+
+            long next = keyPosition + keySize;
+
+            if (tombstone) {
+                valueSize = 0;
+            } else if (pointer) {
+                valueSize = ValueLog.POINTER_SIZE;
+            } else {
+                valueSize = readVarint(file, next);
+                next += varintSize(valueSize);
+            }
+
+            valuePosition = next;
+            end = valuePosition + valueSize;
+        }
+
+        private void readLegacy(MappedFile file, long position) {
+            keySize = file.getInt(position);
+            keyPosition = position + Integer.BYTES;
+
+            int storedSize = file.getInt(keyPosition + keySize);
+            pointer = storedSize == LEGACY_POINTER_SIZE;
+            valueSize = pointer ? ValueLog.POINTER_SIZE : storedSize;
+            valuePosition = keyPosition + keySize + Integer.BYTES;
+            end = valuePosition + valueSize;
+
+            tombstone = !pointer
+                    && valueSize == LEGACY_TOMBSTONE.remaining()
+                    && file.slice(valuePosition, valueSize).equals(LEGACY_TOMBSTONE);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import ru.mail.polis.lsm.Record;
+import ru.mail.polis.lsm.RowCacheStats;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of point lookups that missed memory storage, absent keys are cached as tombstones.
+ *
+ * <p>Every shard is a segmented LRU: new entries go to the probation segment and are promoted
+ * to the protected one on the second hit, so a scan over cold keys can't wash out hot ones.
+ * Each shard has a version bumped on invalidation; a lookup result is stored only if the version
+ * didn't change since the lookup started, so a value read before an upsert can't be cached after it.
+ */
+final class RowCache {
+
+    private static final int SHARDS = 64;
+    private static final double PROTECTED_SHARE = 0.8;
+
+    /**
+     * Rough size of map entry, record and buffer headers per cached key.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final Shard[] shards;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    RowCache(long capacity) {
+        this.shards = new Shard[SHARDS];
+
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(capacity / SHARDS);
+        }
+    }
+
+    /**
+     * Returns cached lookup result.
+     *
+     * @param key is key.
+     * @return record, tombstone if the key is absent, or {@code null} if the key is not cached.
+     */
+    @Nullable
+    Record get(ByteBuffer key) {
+        Record record = shard(key).get(key);
+
+        if (record == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+
+        return record;
+    }
+
+    /**
+     * Returns version to pass to {@link #put} after the lookup.
+     *
+     * @param key is key to look up.
+     * @return version of the key.
+     */
+    long version(ByteBuffer key) {
+        return shard(key).version();
+    }
+
+    /**
+     * Caches copy of the lookup result unless the key was invalidated since {@code version}.
+     *
+     * @param key     is key.
+     * @param record  is found record or {@code null} if there is no record.
+     * @param version is version returned by {@link #version} before the lookup.
+     */
+    void put(ByteBuffer key, @Nullable Record record, long version) {
+        Shard shard = shard(key);
+
+        // Values too large for the shard are not copied just to be rejected, they are read from mapped files
+        if (record != null && !shard.fits(sizeOf(record))) {
+            return;
+        }
+
+        ByteBuffer keyCopy = copy(key);
+        Record recordCopy = record == null || record.isTombstone()
+                ? Record.tombstone(keyCopy)
+                : Record.of(keyCopy, copy(record.getValue()));
+
+        shard.put(keyCopy, recordCopy, version);
+    }
+
+    void invalidate(ByteBuffer key) {
+        shard(key).invalidate(key);
+    }
+
+    void invalidateAll() {
+        for (Shard shard : shards) {
+            shard.invalidateAll();
+        }
+    }
+
+    RowCacheStats stats() {
+        long size = 0;
+        long count = 0;
+
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.probationSize + shard.protectedSize;
+                count += shard.probation.size() + shard.protectedSegment.size();
+            }
+        }
+
+        return new RowCacheStats(hits.sum(), misses.sum(), evictions.sum(), count, size);
+    }
+
+    private Shard shard(ByteBuffer key) {
+        int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate()).flip();
+        return copy;
+    }
+
+    private static long sizeOf(Record record) {
+        return ENTRY_OVERHEAD + record.getKeySize() + record.getValueSize();
+    }
+
+    private final class Shard {
+        private final long capacity;
+        private final long protectedCapacity;
+        private final Map<ByteBuffer, Record> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<ByteBuffer, Record> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long probationSize;
+        private long protectedSize;
+        private long version;
+
+        private Shard(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (long) (capacity * PROTECTED_SHARE);
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized Record get(ByteBuffer key) {
+            Record record = protectedSegment.get(key);
+            if (record != null) {
+                return record;
+            }
+
+            record = probation.remove(key);
+            if (record == null) {
+                return null;
+            }
+
+            long size = sizeOf(record);
+            probationSize -= size;
+            protectedSegment.put(key, record);
+            protectedSize += size;
+
+            while (protectedSize > protectedCapacity) {
+                Iterator<Map.Entry<ByteBuffer, Record>> eldest = protectedSegment.entrySet().iterator();
+                Map.Entry<ByteBuffer, Record> entry = eldest.next();
+                eldest.remove();
+
+                long entrySize = sizeOf(entry.getValue());
+                protectedSize -= entrySize;
+                probation.put(entry.getKey(), entry.getValue());
+                probationSize += entrySize;
+            }
+
+            evict();
+
+            return record;
+        }
+
+        boolean fits(long size) {
+            return size <= capacity - protectedCapacity;
+        }
+
+        synchronized void put(ByteBuffer key, Record record, long expectedVersion) {
+            long size = sizeOf(record);
+
+            if (version != expectedVersion || !fits(size)) {
+                return;
+            }
+
+            remove(key);
+            probation.put(key, record);
+            probationSize += size;
+
+            evict();
+        }
+
+        synchronized void invalidate(ByteBuffer key) {
+            version++;
+            remove(key);
+        }
+
+        synchronized void invalidateAll() {
+            version++;
+            probation.clear();
+            protectedSegment.clear();
+            probationSize = 0;
+            protectedSize = 0;
+        }
+
+        private void remove(ByteBuffer key) {
+            Record removed = probation.remove(key);
+            if (removed != null) {
+                probationSize -= sizeOf(removed);
+            }
+
+            removed = protectedSegment.remove(key);
+            if (removed != null) {
+                protectedSize -= sizeOf(removed);
+            }
+        }
+
+        private void evict() {
+            while (probationSize + protectedSize > capacity && !probation.isEmpty()) {
+                Iterator<Record> eldest = probation.values().iterator();
+                probationSize -= sizeOf(eldest.next());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+}
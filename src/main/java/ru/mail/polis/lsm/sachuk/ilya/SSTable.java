@@ -1,38 +1,41 @@
 package ru.mail.polis.lsm.sachuk.ilya;
 
+import ru.mail.polis.lsm.DAOConfig.Verification;
 import ru.mail.polis.lsm.Record;
+import ru.mail.polis.lsm.sachuk.ilya.iterators.MergeCursor;
+import ru.mail.polis.lsm.sachuk.ilya.iterators.RecordCursor;
 
 import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.WritableByteChannel;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
 
 class SSTable {
 
-    static final String FIRST_SAVE_FILE = "SSTABLE0.save";
-    static final String FIRST_INDEX_FILE = "INDEX0.index";
-
     private static final String SAVE_FILE = "SSTABLE";
     private static final String SAVE_FILE_END = ".save";
 
@@ -40,33 +43,120 @@ class SSTable {
     private static final String INDEX_FILE_END = ".index";
 
     private static final String TMP_FILE = "TMP";
-    private static final String NULL_VALUE = "NULL_VALUE";
-    private static final ByteBuffer BYTE_BUFFER_TOMBSTONE = ByteBuffer.wrap(NULL_VALUE.getBytes(StandardCharsets.UTF_8));
+    private static final String COMPACTION_MARKER = "COMPACTION";
 
-    private final Path savePath;
-    private final Path indexPath;
-    private int[] indexes;
+    static final int INDEX_ENTRY_SIZE = Long.BYTES * 2 + Integer.BYTES;
+
+    /**
+     * Size of statistics in the index without min and max keys, see {@link SSTableWriter}.
+     */
+    static final int STATS_FIXED_SIZE = Integer.BYTES * 3 + Long.BYTES * 3;
 
-    private MappedByteBuffer mappedByteBuffer;
-    private MappedByteBuffer indexByteBuffer;
+    /**
+     * Min and max keys up to this size are kept on heap, larger ones are read from the mapped file.
+     */
+    private static final int MAX_HEAP_KEY_SIZE = 1024;
 
-    SSTable(Path savePath, Path indexPath) throws IOException {
+    private final Path savePath;
+    private final Path indexPath;
+    private final int fileNumber;
+    private final Verification verification;
+    @Nullable
+    private final ValueLog valueLog;
+
+    /**
+     * Number of {@link TableSet}s with the table.
+     */
+    private final AtomicInteger references = new AtomicInteger();
+
+    private long[] indexes;
+    private long[] keyPrefixes;
+    private int[] checksums;
+    private TableStats stats;
+    private ByteBuffer minKey;
+    private ByteBuffer maxKey;
+
+    private MappedFile mappedFile;
+
+    SSTable(Path savePath, Path indexPath, Verification verification, @Nullable ValueLog valueLog)
+            throws IOException {
         this.savePath = savePath;
         this.indexPath = indexPath;
+        this.fileNumber = getFileNumber(savePath, SAVE_FILE_END);
+        this.verification = verification;
+        this.valueLog = valueLog;
 
         restoreStorage();
     }
 
     Iterator<Record> range(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return range(fromKey, toKey, false);
+    }
+
+    /**
+     * Returns records of the range.
+     *
+     * @param fromKey    is first key, inclusive.
+     * @param toKey      is last key, exclusive.
+     * @param lazyValues is whether values are read only when requested.
+     * @return iterator of records.
+     */
+    Iterator<Record> range(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey, boolean lazyValues) {
 
-        if (fromKey != null && toKey != null && fromKey.compareTo(toKey) == 0) {
+        int fromIndex = fromKey == null ? 0 : binarySearchKey(fromKey);
+        int toIndex = toKey == null ? indexes.length : binarySearchKey(toKey);
+
+        if (fromIndex >= toIndex) {
             return Collections.emptyIterator();
         }
 
-        return new SSTableIterator(binarySearchKey(indexes, fromKey), toKey);
+        return new SSTableIterator(fromIndex, toIndex, lazyValues);
+    }
+
+    /**
+     * Finds record with the given key.
+     *
+     * @param key is key.
+     * @return record, tombstone if the key was deleted, or {@code null} if the table has no such key.
+     */
+    @Nullable
+    Record get(ByteBuffer key) {
+        int index = binarySearchKey(key);
+
+        if (index == indexes.length || keyPrefixes[index] != keyPrefix(key) || !keyAt(index).equals(key)) {
+            return null;
+        }
+
+        return new SSTableIterator(index, index + 1, false).next();
     }
 
-    static List<SSTable> loadFromDir(Path dir) throws IOException {
+    RecordCursor cursor(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+
+        int fromIndex = fromKey == null ? 0 : binarySearchKey(fromKey);
+        int toIndex = toKey == null ? indexes.length : binarySearchKey(toKey);
+
+        return new SSTableCursor(fromIndex, Math.max(fromIndex, toIndex), true);
+    }
+
+    /**
+     * Returns cursor that shows pointers to the value log instead of values, for compaction.
+     *
+     * @param fromKey is first key, inclusive.
+     * @param toKey   is last key, exclusive.
+     * @return cursor.
+     */
+    RecordCursor rawCursor(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+
+        int fromIndex = fromKey == null ? 0 : binarySearchKey(fromKey);
+        int toIndex = toKey == null ? indexes.length : binarySearchKey(toKey);
+
+        return new SSTableCursor(fromIndex, Math.max(fromIndex, toIndex), false);
+    }
+
+    static List<SSTable> loadFromDir(Path dir, Verification verification, @Nullable ValueLog valueLog)
+            throws IOException {
+
+        finishCompaction(dir);
 
         List<SSTable> listSSTables = new ArrayList<>();
 
@@ -77,79 +167,458 @@ class SSTable {
             Path savePath = savePaths.next();
             Path indexPath = indexPaths.next();
 
-            listSSTables.add(new SSTable(savePath, indexPath));
+            listSSTables.add(new SSTable(savePath, indexPath, verification, valueLog));
         }
 
         return listSSTables;
     }
 
-    static SSTable save(Iterator<Record> iterators, Path dir, int fileNumber) throws IOException {
+    static SSTable save(
+            Iterator<Record> iterators,
+            Path dir,
+            int fileNumber,
+            Verification verification,
+            ValueLog valueLog,
+            Executor ioExecutor
+    ) throws IOException {
+        return save(dir, fileNumber, verification, valueLog, ioExecutor, writer -> {
+            while (iterators.hasNext()) {
+                writer.write(iterators.next());
+            }
+        });
+    }
+
+    /**
+     * Writes records of the merged raw cursors, values already in the value log are not copied.
+     *
+     * @param cursor       is merge of cursors returned by {@link #rawCursor}.
+     * @param dir          is storage directory.
+     * @param fileNumber   is number of the new table.
+     * @param verification is verification mode of the new table.
+     * @param valueLog     is value log of the storage.
+     * @param ioExecutor   is executor writing buffers of the table files.
+     * @return written table.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    static SSTable save(
+            MergeCursor cursor,
+            Path dir,
+            int fileNumber,
+            Verification verification,
+            ValueLog valueLog,
+            Executor ioExecutor
+    ) throws IOException {
+        return save(dir, fileNumber, verification, valueLog, ioExecutor, writer -> {
+            while (cursor.next()) {
+                writer.write(cursor.key(), cursor.value(), cursor.isBlobPointer());
+            }
+        });
+    }
+
+    private static SSTable save(
+            Path dir,
+            int fileNumber,
+            Verification verification,
+            ValueLog valueLog,
+            Executor ioExecutor,
+            TableContent content
+    ) throws IOException {
+
+        final Path savePath = savePath(dir, fileNumber);
+        final Path indexPath = indexPath(dir, fileNumber);
+
+        Path tmpSavePath = dir.resolve(SAVE_FILE + "_" + TMP_FILE + fileNumber);
+        Path tmpIndexPath = dir.resolve(INDEX_FILE + "_" + TMP_FILE + fileNumber);
+
+        Files.deleteIfExists(tmpSavePath);
+        Files.deleteIfExists(tmpIndexPath);
+
+        try (ValueLog.Writer valueLogWriter = valueLog.writer(fileNumber);
+             SSTableWriter writer = new SSTableWriter(tmpSavePath, tmpIndexPath, valueLogWriter, ioExecutor)) {
+            content.writeTo(writer);
+        }
 
-        final Path savePath = dir.resolve(SAVE_FILE + fileNumber + SAVE_FILE_END);
-        final Path indexPath = dir.resolve(INDEX_FILE + fileNumber + INDEX_FILE_END);
+        return install(tmpSavePath, tmpIndexPath, savePath, indexPath, verification, valueLog);
+    }
 
-        Path tmpSavePath = dir.resolve(SAVE_FILE + "_" + TMP_FILE);
-        Path tmpIndexPath = dir.resolve(INDEX_FILE + "_" + TMP_FILE);
+    /**
+     * Adds table built outside of the storage directory under the given number.
+     * Files are hard linked when possible, so the data is not copied.
+     *
+     * @param external     is table to add.
+     * @param dir          is storage directory.
+     * @param fileNumber   is number of the new table.
+     * @param verification is verification mode of the new table.
+     * @param valueLog     is value log of the storage.
+     * @return added table.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    static SSTable link(SSTable external, Path dir, int fileNumber, Verification verification, ValueLog valueLog)
+            throws IOException {
+        Path tmpSavePath = dir.resolve(SAVE_FILE + "_" + TMP_FILE + fileNumber);
+        Path tmpIndexPath = dir.resolve(INDEX_FILE + "_" + TMP_FILE + fileNumber);
 
         Files.deleteIfExists(tmpSavePath);
         Files.deleteIfExists(tmpIndexPath);
 
-        try (FileChannel saveFileChannel = openFileChannel(tmpSavePath)) {
-            try (FileChannel indexFileChanel = openFileChannel(tmpIndexPath)) {
+        linkOrCopy(external.savePath, tmpSavePath);
+        linkOrCopy(external.indexPath, tmpIndexPath);
+
+        return install(
+                tmpSavePath,
+                tmpIndexPath,
+                savePath(dir, fileNumber),
+                indexPath(dir, fileNumber),
+                verification,
+                valueLog
+        );
+    }
+
+    void linkTo(Path dir) throws IOException {
+        linkOrCopy(savePath, dir.resolve(savePath.getFileName()));
+        linkOrCopy(indexPath, dir.resolve(indexPath.getFileName()));
+    }
+
+    static Path savePath(Path dir, int fileNumber) {
+        return dir.resolve(SAVE_FILE + fileNumber + SAVE_FILE_END);
+    }
+
+    static Path indexPath(Path dir, int fileNumber) {
+        return dir.resolve(INDEX_FILE + fileNumber + INDEX_FILE_END);
+    }
+
+    /**
+     * Remembers tables replaced by a compaction that are still to be deleted.
+     * If the process dies before they are removed, {@link #loadFromDir} finishes the job,
+     * so the old and the compacted tables are never visible together.
+     *
+     * <p>The marker is {@code [int count][int table number]...}, a marker of a single int
+     * written by older versions means that all tables below that number are replaced.
+     *
+     * @param dir          is directory with tables.
+     * @param tableNumbers is numbers of the replaced tables.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    static void markCompaction(Path dir, Collection<Integer> tableNumbers) throws IOException {
+        Path tmpMarkerPath = dir.resolve(COMPACTION_MARKER + "_" + TMP_FILE);
+
+        ByteBuffer marker = ByteBuffer.allocate(Integer.BYTES * (tableNumbers.size() + 1))
+                .putInt(tableNumbers.size());
+        for (int tableNumber : tableNumbers) {
+            marker.putInt(tableNumber);
+        }
+
+        Files.write(tmpMarkerPath, marker.array());
+        Files.move(tmpMarkerPath, dir.resolve(COMPACTION_MARKER), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void unmarkCompaction(Path dir) throws IOException {
+        Files.deleteIfExists(dir.resolve(COMPACTION_MARKER));
+    }
+
+    /**
+     * Returns up to {@code count} keys evenly spread over records of the table in {@code [fromKey, toKey)},
+     * the first record of the range is never returned.
+     * Keys are read-only views of the mapped file and are valid until the table is closed.
+     *
+     * @param fromKey is first key, inclusive.
+     * @param toKey   is last key, exclusive.
+     * @param count   is maximum number of keys.
+     * @return sorted list of keys.
+     */
+    List<ByteBuffer> sampleKeys(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey, int count) {
+        if (count <= 0 || !intersects(fromKey, toKey)) {
+            return Collections.emptyList();
+        }
+
+        int fromIndex = fromKey == null ? 0 : binarySearchKey(fromKey);
+        int toIndex = toKey == null ? indexes.length : binarySearchKey(toKey);
+        int step = Math.max(1, (toIndex - fromIndex) / (count + 1));
+
+        List<ByteBuffer> keys = new ArrayList<>(count);
+
+        for (int i = fromIndex + step; i < toIndex && keys.size() < count; i += step) {
+            keys.add(readFromFile(indexes[i]));
+        }
+
+        return keys;
+    }
+
+    boolean isEmpty() {
+        return indexes.length == 0;
+    }
+
+    ByteBuffer firstKey() {
+        return minKey == null ? keyAt(0) : minKey;
+    }
+
+    ByteBuffer lastKey() {
+        return maxKey == null ? keyAt(indexes.length - 1) : maxKey;
+    }
+
+    TableStats stats() {
+        return stats;
+    }
+
+    /**
+     * Counts records of the table in {@code [fromKey, toKey)} by two lookups in the index, tombstones included.
+     *
+     * @param fromKey is first key, inclusive.
+     * @param toKey   is last key, exclusive.
+     * @return number of records.
+     */
+    long approximateCount(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        if (!intersects(fromKey, toKey)) {
+            return 0;
+        }
+
+        int fromIndex = fromKey == null ? 0 : binarySearchKey(fromKey);
+        int toIndex = toKey == null ? indexes.length : binarySearchKey(toKey);
+
+        return Math.max(0, toIndex - fromIndex);
+    }
+
+    /**
+     * Estimates size of records of the table in {@code [fromKey, toKey)}: bytes of the table between
+     * the first and the last record by the index, and values in the value log by their average size.
+     *
+     * @param fromKey is first key, inclusive.
+     * @param toKey   is last key, exclusive.
+     * @return size in bytes.
+     */
+    long approximateSize(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        if (!intersects(fromKey, toKey)) {
+            return 0;
+        }
+
+        int fromIndex = fromKey == null ? 0 : binarySearchKey(fromKey);
+        int toIndex = toKey == null ? indexes.length : binarySearchKey(toKey);
+
+        if (fromIndex >= toIndex) {
+            return 0;
+        }
+
+        long fromOffset = indexes[fromIndex];
+        long toOffset = toIndex == indexes.length ? stats.getDataSize() : indexes[toIndex];
+        long blobBytes = stats.getBlobBytes() * (toIndex - fromIndex) / indexes.length;
+
+        return toOffset - fromOffset + blobBytes;
+    }
+
+    /**
+     * Tells by the key range of the table whether it may have keys in {@code [fromKey, toKey)}.
+     *
+     * @param fromKey is first key, inclusive.
+     * @param toKey   is last key, exclusive.
+     * @return {@code false} if the table certainly has no such keys.
+     */
+    boolean intersects(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return !isEmpty()
+                && (fromKey == null || compareWithKeyAt(indexes.length - 1, lastKey(), fromKey) >= 0)
+                && (toKey == null || compareWithKeyAt(0, firstKey(), toKey) < 0);
+    }
+
+    boolean mayContain(ByteBuffer key) {
+        return !isEmpty()
+                && compareWithKeyAt(0, firstKey(), key) <= 0
+                && compareWithKeyAt(indexes.length - 1, lastKey(), key) >= 0;
+    }
+
+    /**
+     * Checks whether key ranges of the tables overlap, only then the tables may hold the same key.
+     *
+     * @param other is another table.
+     * @return true if some key is inside both ranges.
+     */
+    boolean overlaps(SSTable other) {
+        return !isEmpty() && !other.isEmpty()
+                && compareWithKeyAt(0, firstKey(), other.lastKey()) <= 0
+                && compareWithKeyAt(indexes.length - 1, lastKey(), other.firstKey()) >= 0;
+    }
+
+    /**
+     * Compares key of the table with {@code key}, by prefixes kept in memory when they differ.
+     *
+     * @param index    is index of the table key.
+     * @param tableKey is the table key.
+     * @param key      is key to compare with.
+     * @return result of comparison.
+     */
+    private int compareWithKeyAt(int index, ByteBuffer tableKey, ByteBuffer key) {
+        int compare = Long.compareUnsigned(keyPrefixes[index], keyPrefix(key));
+        return compare == 0 ? tableKey.compareTo(key) : compare;
+    }
+
+    /**
+     * Checks that the index points inside the file in order and keys are sorted,
+     * comparing full keys only where prefixes do not decide.
+     *
+     * @throws IOException if the table is malformed.
+     */
+    void validate() throws IOException {
+        RecordEncoding.Layout layout = new RecordEncoding.Layout();
+        long previousEnd = 0;
+        long fileSize = mappedFile.size();
+
+        for (int i = 0; i < indexes.length; i++) {
+            if (indexes[i] != previousEnd) {
+                throw new IOException("Broken index of " + savePath + " at record " + i);
+            }
 
-                ByteBuffer size = ByteBuffer.allocate(Integer.BYTES);
+            try {
+                layout.read(mappedFile, indexes[i]);
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed record " + i + " in " + savePath, e);
+            }
+
+            if (layout.keySize < 0 || layout.valueSize < 0 || layout.end > fileSize) {
+                throw new IOException("Truncated record " + i + " in " + savePath);
+            }
+            if (layout.pointer) {
+                throw new IOException("Record " + i + " in " + savePath + " refers to a value log");
+            }
 
-                int counter = 0;
-                writeValue(indexFileChanel, counter);
+            previousEnd = layout.end;
 
-                while (iterators.hasNext()) {
-                    int indexPositionToRead = (int) saveFileChannel.position();
+            if (i > 0 && Long.compareUnsigned(keyPrefixes[i - 1], keyPrefixes[i]) > 0
+                    || i > 0 && keyPrefixes[i - 1] == keyPrefixes[i] && keyAt(i - 1).compareTo(keyAt(i)) >= 0) {
+                throw new IOException("Keys are not sorted in " + savePath + " at record " + i);
+            }
+        }
 
-                    writeValue(indexFileChanel, indexPositionToRead);
-                    counter++;
+        if (previousEnd != fileSize) {
+            throw new IOException("Unexpected data at the end of " + savePath);
+        }
 
-                    Record record = iterators.next();
+        if (!isEmpty() && (!keyAt(0).equals(firstKey()) || !keyAt(indexes.length - 1).equals(lastKey()))) {
+            throw new IOException("Key range in " + indexPath + " does not match " + savePath);
+        }
+    }
 
-                    ByteBuffer value = record.getValue() == null
-                            ? ByteBuffer.wrap(NULL_VALUE.getBytes(StandardCharsets.UTF_8))
-                            : record.getValue();
+    /**
+     * Reads both files from disk and checks checksums of every record and of the index.
+     * Files are read with their own streams rather than through the mapping,
+     * so the table may be deleted by compaction in the middle without harm.
+     *
+     * @throws IOException if the files are corrupted or can't be read.
+     */
+    void verifyChecksums() throws IOException {
+        CRC32C recordChecksum = new CRC32C();
+        CRC32C indexChecksum = new CRC32C();
+        byte[] buffer = new byte[8192];
+
+        try (DataInputStream index = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(indexPath)), indexChecksum));
+             DataInputStream data = new DataInputStream(new CheckedInputStream(
+                     new BufferedInputStream(Files.newInputStream(savePath)), recordChecksum))) {
+
+            IndexFormat format = IndexFormat.read(
+                    indexPath,
+                    Files.size(indexPath),
+                    position -> readInt(indexPath, position)
+            );
+            RecordEncoding.skipFully(index, (int) format.entriesStart, buffer);
+
+            long position = 0;
+
+            for (long i = 0; i < format.count; i++) {
+                long offset;
+                if (format.hasKeyPrefixes()) {
+                    offset = index.readLong();
+                    index.readLong();
+                } else {
+                    offset = index.readInt();
+                }
+                int expectedChecksum = format.hasChecksums() ? index.readInt() : 0;
 
-                    writeSizeAndValue(record.getKey(), saveFileChannel, size);
-                    writeSizeAndValue(value, saveFileChannel, size);
+                if (offset != position) {
+                    throw new IOException("Broken index of " + savePath + " at record " + i);
                 }
 
-                int curPos = (int) indexFileChanel.position();
+                recordChecksum.reset();
+                position += RecordEncoding.skip(data, buffer);
+
+                if (format.hasChecksums() && (int) recordChecksum.getValue() != expectedChecksum) {
+                    throw new IOException("Checksum mismatch in " + savePath + " at record " + i);
+                }
+            }
 
-                indexFileChanel.position(0);
+            if (data.read() != -1) {
+                throw new IOException("Unexpected data at the end of " + savePath);
+            }
 
-                writeValue(indexFileChanel, counter);
+            if (!format.hasChecksums()) {
+                return;
+            }
 
-                indexFileChanel.position(curPos);
+            RecordEncoding.skipFully(index, (int) (format.statsEnd - format.entriesEnd()), buffer);
 
-                saveFileChannel.force(false);
-                indexFileChanel.force(false);
+            if (index.readInt() != format.count) {
+                throw new IOException("Malformed index " + indexPath);
+            }
+            if (format.versioned && (index.readInt() != IndexFormat.VERSION || index.readInt() != IndexFormat.MAGIC)) {
+                throw new IOException("Malformed index " + indexPath);
+            }
+
+            int expectedChecksum = (int) indexChecksum.getValue();
+            if (index.readInt() != expectedChecksum) {
+                throw new IOException("Checksum mismatch in " + indexPath);
             }
         }
+    }
+
+    int getFileNumber() {
+        return fileNumber;
+    }
+
+    /**
+     * Closes and deletes table that was never read by the storage.
+     *
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    void delete() throws IOException {
+        close();
+        deleteFiles();
+    }
 
+    /**
+     * Deletes files of a table replaced by a compaction after its last reader released it.
+     * The mapping is not closed: records returned by reads may still be views of it,
+     * the garbage collector unmaps it after them.
+     *
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    void deleteFiles() throws IOException {
         Files.deleteIfExists(savePath);
         Files.deleteIfExists(indexPath);
+    }
 
-        Files.move(tmpSavePath, savePath, StandardCopyOption.ATOMIC_MOVE);
-        Files.move(tmpIndexPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+    void acquire() {
+        references.incrementAndGet();
+    }
 
-        return new SSTable(savePath, indexPath);
+    /**
+     * Drops a reference taken by {@link #acquire}.
+     *
+     * @return {@code true} if it was the last reference.
+     */
+    boolean release() {
+        return references.decrementAndGet() == 0;
     }
 
-    void close() throws IOException {
-        if (mappedByteBuffer != null) {
-            clean(mappedByteBuffer);
-        }
+    boolean isReferenced() {
+        return references.get() > 0;
+    }
 
-        if (indexByteBuffer != null) {
-            clean(indexByteBuffer);
-            indexByteBuffer.clear();
-            Arrays.fill(indexes, 0);
+    void close() throws IOException {
+        if (mappedFile != null) {
+            mappedFile.close();
+            mappedFile = null;
             indexes = null;
+            keyPrefixes = null;
+            checksums = null;
+            minKey = null;
+            maxKey = null;
         }
     }
 
@@ -161,122 +630,327 @@ class SSTable {
         return indexPath;
     }
 
-    private int binarySearchKey(int[] indexArray, ByteBuffer keyToFind) {
-
-        if (keyToFind == null) {
-            return 0;
-        }
+    /**
+     * Finds index of the first key that is not less than {@code keyToFind}.
+     * Most steps compare only key prefixes kept in memory, full keys are read from the file
+     * just for the entries sharing the prefix of {@code keyToFind}.
+     *
+     * @param keyToFind is key to find.
+     * @return index of the key or number of keys if all keys are less.
+     */
+    private int binarySearchKey(ByteBuffer keyToFind) {
+        long prefixToFind = keyPrefix(keyToFind);
 
         int start = 0;
-        int end = indexArray.length - 1;
+        int end = keyPrefixes.length;
 
-        int positionToRead;
+        while (start < end) {
+            int middle = (start + end) >>> 1;
 
-        int middle = (start + end) / 2;
+            if (Long.compareUnsigned(keyPrefixes[middle], prefixToFind) < 0) {
+                start = middle + 1;
+            } else {
+                end = middle;
+            }
+        }
 
-        while (start <= end) {
+        int samePrefixEnd = start;
+        end = keyPrefixes.length;
 
-            middle = (start + end) / 2;
+        while (samePrefixEnd < end) {
+            int middle = (samePrefixEnd + end) >>> 1;
 
-            positionToRead = indexArray[middle];
+            if (Long.compareUnsigned(keyPrefixes[middle], prefixToFind) <= 0) {
+                samePrefixEnd = middle + 1;
+            } else {
+                end = middle;
+            }
+        }
 
-            mappedByteBuffer.position(positionToRead);
+        end = samePrefixEnd;
 
-            ByteBuffer key = readFromFile(mappedByteBuffer);
+        while (start < end) {
+            int middle = (start + end) >>> 1;
 
-            if (keyToFind.compareTo(key) == 0) {
-                return positionToRead;
-            } else if (keyToFind.compareTo(key) > 0) {
+            if (readFromFile(indexes[middle]).compareTo(keyToFind) < 0) {
                 start = middle + 1;
+            } else {
+                end = middle;
+            }
+        }
 
-                if (start > end && keyToFind.compareTo(key) > 0) {
+        return start;
+    }
 
-                    if (start == indexArray.length) {
-                        return -1;
-                    }
+    /**
+     * Packs first {@link Long#BYTES} bytes of the key into a long, so that unsigned comparison of prefixes
+     * never contradicts {@link ByteBuffer#compareTo}. Bytes are compared as signed there,
+     * hence the sign bit of every byte is flipped; short keys are padded with zeroes.
+     *
+     * @param key is key.
+     * @return prefix of the key.
+     */
+    static long keyPrefix(ByteBuffer key) {
+        long prefix = 0;
+
+        int position = key.position();
+        int length = Math.min(key.remaining(), Long.BYTES);
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            int unsignedByte = i < length ? (key.get(position + i) ^ 0x80) & 0xFF : 0;
+            prefix = (prefix << Byte.SIZE) | unsignedByte;
+        }
 
-                    if (start < indexArray.length) {
-                        return start;
-                    }
+        return prefix;
+    }
+
+    private void restoreStorage() throws IOException {
+        mappedFile = MappedFile.map(savePath);
+
+        try (MappedFile indexFile = MappedFile.map(indexPath)) {
+            IndexFormat format = IndexFormat.read(indexPath, indexFile.size(), indexFile::getInt);
+            int size = format.count;
+
+            if (verification != Verification.NONE && format.hasChecksums()) {
+                long checksumPosition = indexFile.size() - Integer.BYTES;
+
+                CRC32C indexChecksum = new CRC32C();
+                indexFile.updateChecksum(indexChecksum, 0, checksumPosition);
+
+                if ((int) indexChecksum.getValue() != indexFile.getInt(checksumPosition)) {
+                    throw new IOException("Checksum mismatch in " + indexPath);
                 }
+            }
+
+            indexes = new long[size];
+            keyPrefixes = new long[size];
+            checksums = format.hasChecksums() ? new int[size] : null;
+
+            long position = format.entriesStart;
+            for (int i = 0; i < size; i++) {
+                if (format.hasKeyPrefixes()) {
+                    indexes[i] = indexFile.getLong(position);
+                    keyPrefixes[i] = indexFile.getLong(position + Long.BYTES);
+                } else {
+                    indexes[i] = indexFile.getInt(position);
+                    keyPrefixes[i] = keyPrefix(readFromFile(indexes[i]));
+                }
+                if (checksums != null) {
+                    checksums[i] = indexFile.getInt(position + Long.BYTES * 2);
+                }
+                position += format.entrySize;
+            }
+
+            stats = format.hasStats()
+                    ? readStats(indexFile, format.entriesEnd(), format.statsEnd, size)
+                    : collectStats();
+        } catch (IOException | RuntimeException e) {
+            mappedFile.close();
+            throw e;
+        }
+    }
+
+    private TableStats readStats(MappedFile indexFile, long position, long end, int recordCount)
+            throws IOException {
+        int tombstoneCount = indexFile.getInt(position);
+        long keyBytes = indexFile.getLong(position + Integer.BYTES);
+        long valueBytes = indexFile.getLong(position + Integer.BYTES + Long.BYTES);
+        long blobBytes = indexFile.getLong(position + Integer.BYTES + Long.BYTES * 2);
+
+        long keyPosition = position + Integer.BYTES + Long.BYTES * 3;
+        int minKeySize = indexFile.getInt(keyPosition);
+        keyPosition += Integer.BYTES;
+
+        if (minKeySize < 0 || keyPosition + minKeySize + Integer.BYTES > end) {
+            throw new IOException("Malformed index " + indexPath);
+        }
+
+        minKey = heapKey(indexFile, keyPosition, minKeySize);
+        keyPosition += minKeySize;
+
+        int maxKeySize = indexFile.getInt(keyPosition);
+        keyPosition += Integer.BYTES;
+
+        if (maxKeySize < 0 || keyPosition + maxKeySize != end) {
+            throw new IOException("Malformed index " + indexPath);
+        }
+
+        maxKey = heapKey(indexFile, keyPosition, maxKeySize);
+
+        return new TableStats(
+                fileNumber,
+                recordCount,
+                tombstoneCount,
+                keyBytes,
+                valueBytes,
+                blobBytes,
+                mappedFile.size()
+        );
+    }
+
+    /**
+     * Computes statistics of a table with an index written before the statistics were kept in it.
+     */
+    private TableStats collectStats() {
+        RecordEncoding.Layout layout = new RecordEncoding.Layout();
+        int tombstoneCount = 0;
+        long keyBytes = 0;
+        long valueBytes = 0;
+        long blobBytes = 0;
+
+        for (int i = 0; i < indexes.length; i++) {
+            layout.read(mappedFile, indexes[i]);
+
+            if (i == 0) {
+                minKey = heapKey(mappedFile, layout.keyPosition, layout.keySize);
+            }
+            if (i == indexes.length - 1) {
+                maxKey = heapKey(mappedFile, layout.keyPosition, layout.keySize);
+            }
+
+            keyBytes += layout.keySize;
+            if (layout.tombstone) {
+                tombstoneCount++;
+            } else if (layout.pointer) {
+                blobBytes += ValueLog.valueLength(mappedFile.slice(layout.valuePosition, layout.valueSize));
             } else {
-                end = middle - 1;
+                valueBytes += layout.valueSize;
             }
+        }
 
+        return new TableStats(
+                fileNumber,
+                indexes.length,
+                tombstoneCount,
+                keyBytes,
+                valueBytes,
+                blobBytes,
+                mappedFile.size()
+        );
+    }
+
+    @Nullable
+    private static ByteBuffer heapKey(MappedFile indexFile, long position, int size) {
+        if (size > MAX_HEAP_KEY_SIZE) {
+            return null;
         }
-        return indexArray[middle];
+
+        ByteBuffer key = ByteBuffer.allocate(size);
+        key.put(indexFile.slice(position, size)).flip();
+        return key.asReadOnlyBuffer();
     }
 
-    private void restoreStorage() throws IOException {
-        try (FileChannel saveFileChannel = FileChannel.open(savePath, StandardOpenOption.READ)) {
-            try (FileChannel indexFileChannel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
-
-                mappedByteBuffer = saveFileChannel.map(
-                        FileChannel.MapMode.READ_ONLY,
-                        0,
-                        saveFileChannel.size()
-                );
-                indexByteBuffer = indexFileChannel.map(
-                        FileChannel.MapMode.READ_ONLY,
-                        0,
-                        indexFileChannel.size()
-                );
-
-                int size = indexByteBuffer.getInt();
-                indexes = new int[size];
-
-                int counter = 0;
-                while (indexByteBuffer.hasRemaining()) {
-
-                    int value = indexByteBuffer.getInt();
-
-                    indexes[counter] = value;
-                    counter++;
+    private static int readInt(Path path, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException();
                 }
             }
         }
-    }
 
-    private ByteBuffer readFromFile(MappedByteBuffer mappedByteBuffer) {
-        int length = mappedByteBuffer.getInt();
+        return buffer.flip().getInt();
+    }
 
-        ByteBuffer byteBuffer = mappedByteBuffer.slice().limit(length).asReadOnlyBuffer();
-        mappedByteBuffer.position(mappedByteBuffer.position() + length);
+    private ByteBuffer keyAt(int index) {
+        return readFromFile(indexes[index]);
+    }
 
-        return byteBuffer;
+    private ByteBuffer readFromFile(long position) {
+        return RecordEncoding.key(mappedFile, position);
     }
 
-    private static void writeSizeAndValue(ByteBuffer value, WritableByteChannel channel, ByteBuffer tmp) throws IOException {
-        tmp.position(0);
-        tmp.putInt(value.remaining());
-        tmp.position(0);
-        channel.write(tmp);
-        channel.write(value);
+    private static SSTable install(
+            Path tmpSavePath,
+            Path tmpIndexPath,
+            Path savePath,
+            Path indexPath,
+            Verification verification,
+            @Nullable ValueLog valueLog
+    ) throws IOException {
+        Files.deleteIfExists(savePath);
+        Files.deleteIfExists(indexPath);
+
+        Files.move(tmpSavePath, savePath, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmpIndexPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+
+        return new SSTable(savePath, indexPath, verification, valueLog);
     }
 
-    private static void writeValue(FileChannel fileChannel, int value) throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(
-                ByteBuffer.allocate(Integer.BYTES).putInt(value).array()
-        );
+    /**
+     * Checks checksum of the record if records are verified on read.
+     *
+     * @param index    is index of the record.
+     * @param position is position of the record in file.
+     * @param end      is position after the record.
+     * @param checksum is reusable checksum.
+     */
+    private void checkRecord(int index, long position, long end, CRC32C checksum) {
+        if (verification != Verification.RECORDS || checksums == null) {
+            return;
+        }
 
-        fileChannel.write(byteBuffer);
+        checksum.reset();
+        mappedFile.updateChecksum(checksum, position, end - position);
+
+        if ((int) checksum.getValue() != checksums[index]) {
+            throw new UncheckedIOException(
+                    new IOException("Checksum mismatch in " + savePath + " at record " + index)
+            );
+        }
     }
 
-    private void clean(MappedByteBuffer mappedByteBuffer) throws IOException {
+    static void linkOrCopy(Path source, Path target) throws IOException {
         try {
-            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
-            Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
-            unsafeField.setAccessible(true);
-            Object unsafe = unsafeField.get(null);
-            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
-            invokeCleaner.invoke(unsafe, mappedByteBuffer);
-        } catch (ClassNotFoundException | NoSuchFieldException | NoSuchMethodException
-                | IllegalAccessException | InvocationTargetException e) {
-            throw new IOException(e);
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(source, target);
+        }
+    }
+
+    private static void finishCompaction(Path dir) throws IOException {
+        Path markerPath = dir.resolve(COMPACTION_MARKER);
+
+        if (!Files.exists(markerPath)) {
+            return;
         }
+
+        ByteBuffer marker = ByteBuffer.wrap(Files.readAllBytes(markerPath));
+
+        if (marker.remaining() == Integer.BYTES) {
+            int firstNewTableNumber = marker.getInt();
+
+            deleteTablesBelow(dir, SAVE_FILE_END, firstNewTableNumber);
+            deleteTablesBelow(dir, INDEX_FILE_END, firstNewTableNumber);
+        } else {
+            int count = marker.getInt();
+
+            for (int i = 0; i < count; i++) {
+                int tableNumber = marker.getInt();
+
+                Files.deleteIfExists(savePath(dir, tableNumber));
+                Files.deleteIfExists(indexPath(dir, tableNumber));
+            }
+        }
+
+        unmarkCompaction(dir);
     }
 
-    private static Iterator<Path> getPathIterator(Path dir, String pathEnd) throws IOException {
+    private static void deleteTablesBelow(Path dir, String pathEnd, int fileNumber) throws IOException {
+        Iterator<Path> paths = getPathIterator(dir, pathEnd);
+
+        while (paths.hasNext()) {
+            Path path = paths.next();
+
+            if (getFileNumber(path, pathEnd) < fileNumber) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    static Iterator<Path> getPathIterator(Path dir, String pathEnd) throws IOException {
         Iterator<Path> paths;
         try (Stream<Path> streamPaths = Files.walk(Paths.get(dir.toUri()))) {
             paths = streamPaths.filter(path -> path.toString().endsWith(pathEnd))
@@ -289,7 +963,7 @@ class SSTable {
         return paths;
     }
 
-    private static Integer getFileNumber(Path path, String endFile) {
+    static Integer getFileNumber(Path path, String endFile) {
         String stringPath = path.toString();
 
         int lastSlash = 0;
@@ -314,37 +988,24 @@ class SSTable {
         return Integer.parseInt(stringPath.substring(firstNumberIndex, stringPath.length() - endFile.length()));
     }
 
-    private static FileChannel openFileChannel(Path path) throws IOException {
-        return FileChannel.open(
-                path,
-                StandardOpenOption.CREATE_NEW,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.TRUNCATE_EXISTING);
-    }
-
     class SSTableIterator implements Iterator<Record> {
-        private final ByteBuffer keyToRead;
-        private final boolean readToEnd;
-
-        SSTableIterator(int positionToStartRead, ByteBuffer keyToRead) {
-            this.keyToRead = keyToRead;
-
-            this.readToEnd = keyToRead == null;
-
-            if (positionToStartRead == -1) {
-                mappedByteBuffer.position(mappedByteBuffer.limit());
-            } else {
-                mappedByteBuffer.position(positionToStartRead);
-            }
+        private final CRC32C checksum = new CRC32C();
+        private final RecordEncoding.Layout layout = new RecordEncoding.Layout();
+        private final boolean lazyValues;
+        private long position;
+        private int index;
+        private int recordsLeft;
+
+        SSTableIterator(int fromIndex, int toIndex, boolean lazyValues) {
+            this.lazyValues = lazyValues;
+            this.position = indexes[fromIndex];
+            this.index = fromIndex;
+            this.recordsLeft = toIndex - fromIndex;
         }
 
         @Override
         public boolean hasNext() {
-            if (readToEnd) {
-                return mappedByteBuffer.hasRemaining();
-            }
-
-            return mappedByteBuffer.hasRemaining() && getNextKey().compareTo(keyToRead) < 0;
+            return recordsLeft > 0;
         }
 
         @Override
@@ -354,28 +1015,114 @@ class SSTable {
                 throw new NoSuchElementException();
             }
 
-            ByteBuffer key = readFromFile(mappedByteBuffer);
-            ByteBuffer value = readFromFile(mappedByteBuffer);
+            MappedFile file = mappedFile;
+            layout.read(file, position);
 
-            Record record;
+            checkRecord(index++, position, layout.end, checksum);
+            position = layout.end;
+            recordsLeft--;
 
-            if (value.compareTo(BYTE_BUFFER_TOMBSTONE) == 0) {
-                record = Record.tombstone(key);
-            } else {
-                value.position(0);
-                record = Record.of(key, value);
+            ByteBuffer key = file.slice(layout.keyPosition, layout.keySize);
+
+            if (layout.tombstone) {
+                return Record.tombstone(key);
+            }
+
+            long valuePosition = layout.valuePosition;
+            int valueSize = layout.valueSize;
+
+            if (layout.pointer) {
+                ByteBuffer pointer = file.slice(valuePosition, valueSize);
+
+                return lazyValues
+                        ? Record.lazy(key, ValueLog.valueLength(pointer), () -> valueLog.read(pointer))
+                        : Record.of(key, valueLog.read(pointer));
             }
 
-            return record;
+            return lazyValues
+                    ? Record.lazy(key, valueSize, () -> file.slice(valuePosition, valueSize))
+                    : Record.of(key, file.slice(valuePosition, valueSize));
         }
+    }
+
+    /**
+     * Cursor that moves two views of the mapped file instead of slicing new buffers for every record.
+     * Values from the value log are read only if {@code resolveBlobs} is set, otherwise pointers are shown.
+     */
+    class SSTableCursor implements RecordCursor {
+        private final MappedFile.View keyView;
+        private final MappedFile.View valueView;
+        private final CRC32C checksum = new CRC32C();
+        private final RecordEncoding.Layout layout = new RecordEncoding.Layout();
+        private final boolean resolveBlobs;
+        private long position;
+        private int index;
+        private int recordsLeft;
+
+        private ByteBuffer key;
+        private ByteBuffer value;
+        private boolean tombstone;
+        private boolean blobPointer;
+
+        SSTableCursor(int fromIndex, int toIndex, boolean resolveBlobs) {
+            this.resolveBlobs = resolveBlobs;
+            this.keyView = mappedFile.view();
+            this.valueView = mappedFile.view();
+            this.index = fromIndex;
+            this.recordsLeft = toIndex - fromIndex;
+
+            if (recordsLeft > 0) {
+                position = indexes[fromIndex];
+            }
+        }
+
+        @Override
+        public boolean next() {
+            if (recordsLeft == 0) {
+                return false;
+            }
+
+            layout.read(mappedFile, position);
+
+            checkRecord(index++, position, layout.end, checksum);
+            position = layout.end;
+            recordsLeft--;
 
-        private ByteBuffer getNextKey() {
-            int currentPos = mappedByteBuffer.position();
+            key = keyView.move(layout.keyPosition, layout.keySize);
+            value = valueView.move(layout.valuePosition, layout.valueSize);
+            tombstone = layout.tombstone;
+            blobPointer = layout.pointer;
 
-            ByteBuffer key = readFromFile(mappedByteBuffer);
-            mappedByteBuffer.position(currentPos);
+            if (blobPointer && resolveBlobs) {
+                value = valueLog.read(value);
+            }
+
+            return true;
+        }
 
+        @Override
+        public ByteBuffer key() {
             return key;
         }
+
+        @Override
+        public ByteBuffer value() {
+            return tombstone ? null : value;
+        }
+
+        @Override
+        public boolean isTombstone() {
+            return tombstone;
+        }
+
+        @Override
+        public boolean isBlobPointer() {
+            return blobPointer && !resolveBlobs;
+        }
+    }
+
+    @FunctionalInterface
+    private interface TableContent {
+        void writeTo(SSTableWriter writer) throws IOException;
     }
 }
@@ -0,0 +1,253 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import ru.mail.polis.lsm.Record;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes records sorted by key into a table file and its index, see {@link RecordEncoding} for the records.
+ *
+ * <p>Every index entry keeps CRC32C of its record. The index ends with statistics of the table,
+ * the number of records, the format version and CRC32C of all preceding index bytes, see {@link IndexFormat}.
+ *
+ * <p>Records are encoded into large direct buffers, full buffers of both files
+ * are written by a background thread while the next ones are being filled.
+ *
+ * <p>Besides flushes and compaction it is used to build tables offline:
+ * a table written with {@link #create(Path)} can be attached to a live storage
+ * by {@link ru.mail.polis.lsm.DAO#ingest(Path)} without rewriting the data.
+ */
+public final class SSTableWriter implements Closeable {
+
+    private static final int SAVE_BUFFER_SIZE = 1024 * 1024;
+    private static final int INDEX_BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel saveFileChannel;
+    private final FileChannel indexFileChannel;
+    @Nullable
+    private final ExecutorService ownExecutor;
+    private final DoubleBufferedWriter saveWriter;
+    private final DoubleBufferedWriter indexWriter;
+    @Nullable
+    private final ValueLog.Writer valueLogWriter;
+    private final CRC32C recordChecksum = new CRC32C();
+    private final CRC32C indexChecksum = new CRC32C();
+    private final ByteBuffer prefix = ByteBuffer.allocate(1 + RecordEncoding.MAX_VARINT_SIZE);
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(SSTable.INDEX_ENTRY_SIZE);
+
+    private ByteBuffer lastKey;
+    private int counter;
+
+    private ByteBuffer minKey;
+    private ByteBuffer maxKey = ByteBuffer.allocate(0);
+    private int tombstoneCount;
+    private long keyBytes;
+    private long valueBytes;
+    private long blobBytes;
+
+    SSTableWriter(
+            Path savePath,
+            Path indexPath,
+            @Nullable ValueLog.Writer valueLogWriter,
+            Executor ioExecutor
+    ) throws IOException {
+        this(savePath, indexPath, valueLogWriter, ioExecutor, null);
+    }
+
+    private SSTableWriter(
+            Path savePath,
+            Path indexPath,
+            @Nullable ValueLog.Writer valueLogWriter,
+            Executor ioExecutor,
+            @Nullable ExecutorService ownExecutor
+    ) throws IOException {
+        this.valueLogWriter = valueLogWriter;
+        this.ownExecutor = ownExecutor;
+        this.saveFileChannel = openFileChannel(savePath);
+
+        try {
+            this.indexFileChannel = openFileChannel(indexPath);
+        } catch (IOException e) {
+            saveFileChannel.close();
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+            throw e;
+        }
+
+        this.saveWriter = new DoubleBufferedWriter(saveFileChannel, ioExecutor, SAVE_BUFFER_SIZE);
+        this.indexWriter = new DoubleBufferedWriter(indexFileChannel, ioExecutor, INDEX_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates writer of a standalone table in an empty directory.
+     * The writer has its own I/O thread, tables of a storage share the I/O executor of the storage.
+     *
+     * @param dir is directory for the table.
+     * @return writer.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    public static SSTableWriter create(Path dir) throws IOException {
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sstable-writer-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        return new SSTableWriter(SSTable.savePath(dir, 0), SSTable.indexPath(dir, 0), null, ioExecutor, ioExecutor);
+    }
+
+    /**
+     * Appends record to the table.
+     *
+     * @param record is record with the key greater than keys of all written records.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    public void write(Record record) throws IOException {
+        ByteBuffer key = record.getKey();
+
+        if (lastKey != null && lastKey.compareTo(key) >= 0) {
+            throw new IllegalArgumentException("Records must be sorted by key without duplicates");
+        }
+
+        if (record.isTombstone()) {
+            writeRecord(key, null, RecordEncoding.TOMBSTONE);
+            tombstoneCount++;
+        } else if (valueLogWriter != null && valueLogWriter.accepts(record.getValue())) {
+            writeRecord(key, valueLogWriter.append(record.getValue()), RecordEncoding.POINTER);
+        } else {
+            writeRecord(key, record.getValue(), 0);
+        }
+
+        lastKey = key;
+    }
+
+    /**
+     * Appends record read from another table, keeping pointers to the value log as they are
+     * unless the value log moves the value.
+     *
+     * @param key         is key greater than keys of all written records.
+     * @param storedValue is value or pointer to it.
+     * @param blobPointer is {@code true} if {@code storedValue} is a pointer.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    void write(ByteBuffer key, ByteBuffer storedValue, boolean blobPointer) throws IOException {
+        if (blobPointer) {
+            writeRecord(key, valueLogWriter.relocate(storedValue), RecordEncoding.POINTER);
+        } else {
+            writeRecord(key, storedValue, 0);
+        }
+    }
+
+    private void writeRecord(ByteBuffer key, @Nullable ByteBuffer value, int flags) throws IOException {
+        long offset = saveWriter.position();
+        recordChecksum.reset();
+
+        prefix.clear().put(RecordEncoding.header(flags));
+        RecordEncoding.putVarint(prefix, key.remaining());
+        write(prefix.flip());
+        write(key);
+
+        if (flags == 0) {
+            prefix.clear();
+            RecordEncoding.putVarint(prefix, value.remaining());
+            write(prefix.flip());
+        }
+        if (value != null) {
+            write(value);
+        }
+
+        if (minKey == null) {
+            minKey = copy(key, ByteBuffer.allocate(key.remaining()));
+        }
+        maxKey = copy(key, maxKey.capacity() < key.remaining() ? ByteBuffer.allocate(key.remaining() * 2) : maxKey);
+
+        keyBytes += key.remaining();
+        if (flags == RecordEncoding.POINTER) {
+            blobBytes += ValueLog.valueLength(value);
+        } else if (value != null) {
+            valueBytes += value.remaining();
+        }
+
+        indexEntry.clear()
+                .putLong(offset)
+                .putLong(SSTable.keyPrefix(key))
+                .putInt((int) recordChecksum.getValue())
+                .flip();
+        writeIndex(indexEntry);
+        counter++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (saveFileChannel; indexFileChannel; saveWriter; indexWriter) {
+            writeIndex(footer());
+            indexWriter.putInt((int) indexChecksum.getValue());
+
+            saveWriter.flush();
+            indexWriter.flush();
+
+            saveFileChannel.force(false);
+            indexFileChannel.force(false);
+        } finally {
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns {@code [int tombstones][long key bytes][long value bytes][long blob bytes]
+     * [int min key size][min key][int max key size][max key][int records][int version][int magic]},
+     * see {@link IndexFormat}.
+     */
+    private ByteBuffer footer() {
+        ByteBuffer min = minKey == null ? ByteBuffer.allocate(0) : minKey;
+
+        return ByteBuffer.allocate(SSTable.STATS_FIXED_SIZE + min.remaining() + maxKey.remaining() + Integer.BYTES * 3)
+                .putInt(tombstoneCount)
+                .putLong(keyBytes)
+                .putLong(valueBytes)
+                .putLong(blobBytes)
+                .putInt(min.remaining())
+                .put(min.duplicate())
+                .putInt(maxKey.remaining())
+                .put(maxKey.duplicate())
+                .putInt(counter)
+                .putInt(IndexFormat.VERSION)
+                .putInt(IndexFormat.MAGIC)
+                .flip();
+    }
+
+    private static ByteBuffer copy(ByteBuffer source, ByteBuffer target) {
+        return target.clear().put(source.duplicate()).flip();
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        recordChecksum.update(bytes.duplicate());
+        saveWriter.put(bytes);
+    }
+
+    private void writeIndex(ByteBuffer bytes) throws IOException {
+        indexChecksum.update(bytes.duplicate());
+        indexWriter.put(bytes);
+    }
+
+    private static FileChannel openFileChannel(Path path) throws IOException {
+        return FileChannel.open(
+                path,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
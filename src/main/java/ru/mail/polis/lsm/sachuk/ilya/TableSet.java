@@ -0,0 +1,202 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import ru.mail.polis.lsm.Cursor;
+
+import java.io.Closeable;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Tables of the storage at some moment, readers take the set instead of single tables.
+ *
+ * <p>The storage holds a reference to its current set and replaces the set whenever tables are added
+ * or compacted. Every set holds a reference to each of its tables, so a table replaced by a compaction
+ * stays in place until the last set with it is released, then it is handed to the retire callback.
+ * Readers that may be abandoned, like iterators, also release the set when they become unreachable.
+ */
+final class TableSet {
+
+    private static final Cleaner CLEANER = Cleaner.create(runnable -> {
+        Thread thread = new Thread(runnable, "table-set-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<SSTable> tables;
+    private final Consumer<SSTable> retire;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Creates set referenced by the storage.
+     *
+     * @param tables is tables from the oldest to the newest.
+     * @param retire is called with every table when the last set with it is released.
+     */
+    TableSet(List<SSTable> tables, Consumer<SSTable> retire) {
+        this.tables = List.copyOf(tables);
+        this.retire = retire;
+
+        for (SSTable ssTable : this.tables) {
+            ssTable.acquire();
+        }
+    }
+
+    List<SSTable> tables() {
+        return tables;
+    }
+
+    /**
+     * Takes a reference, must be called under the storage lock while the set is current.
+     *
+     * @return this set.
+     */
+    TableSet acquire() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    void release() {
+        if (references.decrementAndGet() != 0) {
+            return;
+        }
+
+        for (SSTable ssTable : tables) {
+            if (ssTable.release()) {
+                retire.accept(ssTable);
+            }
+        }
+    }
+
+    /**
+     * Releases the taken reference once: when the returned action is run or when {@code reader}
+     * becomes unreachable, whatever comes first.
+     *
+     * @param reader is object that reads the tables, it must not be reachable from the set.
+     * @return release action.
+     */
+    Cleaner.Cleanable releaseWith(Object reader) {
+        return CLEANER.register(reader, new Release(this));
+    }
+
+    /**
+     * Makes handle that releases the taken reference when it is closed or becomes unreachable.
+     *
+     * @return handle of the reference.
+     */
+    Closeable handle() {
+        return new Handle(this);
+    }
+
+    /**
+     * Wraps iterator over the tables of the set, the reference is released when it is exhausted or closed.
+     *
+     * @param iterator is iterator over the tables.
+     * @param <T>      is type of elements.
+     * @return iterator that releases the set.
+     */
+    <T> ReleasingIterator<T> releaseAfter(Iterator<T> iterator) {
+        return new ReleasingIterator<>(iterator, this);
+    }
+
+    /**
+     * Wraps cursor over the tables of the set, the reference is released when the cursor is over.
+     *
+     * @param cursor is cursor over the tables.
+     * @return cursor that releases the set.
+     */
+    Cursor releaseAfter(Cursor cursor) {
+        return new ReleasingCursor(cursor, this);
+    }
+
+    private static final class Release implements Runnable {
+        private final TableSet tableSet;
+
+        private Release(TableSet tableSet) {
+            this.tableSet = tableSet;
+        }
+
+        @Override
+        public void run() {
+            tableSet.release();
+        }
+    }
+
+    private static final class Handle implements Closeable {
+        private final Cleaner.Cleanable release;
+
+        private Handle(TableSet tableSet) {
+            this.release = tableSet.releaseWith(this);
+        }
+
+        @Override
+        public void close() {
+            release.clean();
+        }
+    }
+
+    private static final class ReleasingCursor implements Cursor {
+        private final Cursor delegate;
+        private final Cleaner.Cleanable release;
+
+        private ReleasingCursor(Cursor delegate, TableSet tableSet) {
+            this.delegate = delegate;
+            this.release = tableSet.releaseWith(this);
+        }
+
+        @Override
+        public boolean next() {
+            boolean next = delegate.next();
+
+            if (!next) {
+                release.clean();
+            }
+
+            return next;
+        }
+
+        @Override
+        public ByteBuffer key() {
+            return delegate.key();
+        }
+
+        @Override
+        public ByteBuffer value() {
+            return delegate.value();
+        }
+    }
+
+    static final class ReleasingIterator<T> implements Iterator<T>, Closeable {
+        private final Iterator<T> delegate;
+        private final Cleaner.Cleanable release;
+
+        private ReleasingIterator(Iterator<T> delegate, TableSet tableSet) {
+            this.delegate = delegate;
+            this.release = tableSet.releaseWith(this);
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext = delegate.hasNext();
+
+            if (!hasNext) {
+                release.clean();
+            }
+
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            return delegate.next();
+        }
+
+        @Override
+        public void close() {
+            release.clean();
+        }
+    }
+}
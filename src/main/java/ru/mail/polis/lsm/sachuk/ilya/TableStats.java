@@ -0,0 +1,90 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+/**
+ * Statistics of a table kept in the footer of its index next to its min and max keys.
+ */
+public final class TableStats {
+    private final int fileNumber;
+    private final int recordCount;
+    private final int tombstoneCount;
+    private final long keyBytes;
+    private final long valueBytes;
+    private final long blobBytes;
+    private final long dataSize;
+
+    TableStats(
+            int fileNumber,
+            int recordCount,
+            int tombstoneCount,
+            long keyBytes,
+            long valueBytes,
+            long blobBytes,
+            long dataSize
+    ) {
+        this.fileNumber = fileNumber;
+        this.recordCount = recordCount;
+        this.tombstoneCount = tombstoneCount;
+        this.keyBytes = keyBytes;
+        this.valueBytes = valueBytes;
+        this.blobBytes = blobBytes;
+        this.dataSize = dataSize;
+    }
+
+    public int getFileNumber() {
+        return fileNumber;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public int getTombstoneCount() {
+        return tombstoneCount;
+    }
+
+    /**
+     * Returns share of tombstones among records of the table.
+     *
+     * @return ratio from 0 to 1.
+     */
+    public double getTombstoneRatio() {
+        return recordCount == 0 ? 0 : (double) tombstoneCount / recordCount;
+    }
+
+    public long getKeyBytes() {
+        return keyBytes;
+    }
+
+    /**
+     * Returns size of values stored in the table itself.
+     *
+     * @return size in bytes.
+     */
+    public long getValueBytes() {
+        return valueBytes;
+    }
+
+    /**
+     * Returns size of values kept in the value log and referenced by the table.
+     *
+     * @return size in bytes.
+     */
+    public long getBlobBytes() {
+        return blobBytes;
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    @Override
+    public String toString() {
+        return "table=" + fileNumber
+                + " records=" + recordCount
+                + " tombstones=" + tombstoneCount
+                + " keyBytes=" + keyBytes
+                + " valueBytes=" + valueBytes
+                + " blobBytes=" + blobBytes
+                + " dataSize=" + dataSize;
+    }
+}
@@ -0,0 +1,308 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Append-only blob files for large values, tables keep only pointers to them.
+ *
+ * <p>Every flush or compaction task writes its own blob file named by the number of the table it writes,
+ * so a blob file is never appended to after its table is installed. Compaction copies pointers
+ * instead of values and rewrites only values from blob files where most of the bytes are garbage.
+ */
+final class ValueLog implements Closeable {
+
+    /**
+     * Pointer is {@code [int blob file number][long offset][int length]}.
+     */
+    static final int POINTER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+
+    private static final String BLOB_FILE = "BLOB";
+    private static final String BLOB_FILE_END = ".blob";
+
+    /**
+     * Blob file is rewritten by compaction when less than this part of it is referenced.
+     */
+    private static final double MIN_LIVE_RATIO = 0.5;
+
+    private final Path dir;
+    private final int threshold;
+    private final ConcurrentMap<Integer, MappedFile> blobFiles = new ConcurrentHashMap<>();
+
+    private volatile Set<Integer> garbageFiles = Collections.emptySet();
+
+    /**
+     * Opens blob files of the directory.
+     *
+     * @param dir       is storage directory.
+     * @param threshold is minimal size of value moved to the log.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    ValueLog(Path dir, int threshold) throws IOException {
+        this.dir = dir;
+        this.threshold = threshold;
+
+        Iterator<Path> paths = SSTable.getPathIterator(dir, BLOB_FILE_END);
+
+        try {
+            while (paths.hasNext()) {
+                Path path = paths.next();
+                blobFiles.put(SSTable.getFileNumber(path, BLOB_FILE_END), MappedFile.map(path));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    boolean isEmpty() {
+        return blobFiles.isEmpty();
+    }
+
+    /**
+     * Reads value the pointer refers to.
+     *
+     * @param pointer is pointer written by {@link Writer#append}.
+     * @return read-only view of the value.
+     */
+    ByteBuffer read(ByteBuffer pointer) {
+        int fileNumber = pointer.getInt(pointer.position());
+        MappedFile blobFile = blobFiles.get(fileNumber);
+
+        if (blobFile == null) {
+            throw new UncheckedIOException(new IOException("Missing blob file " + blobPath(dir, fileNumber)));
+        }
+
+        return blobFile.slice(pointer.getLong(pointer.position() + Integer.BYTES), valueLength(pointer));
+    }
+
+    /**
+     * Adds length of the referenced value to the live bytes of its blob file.
+     *
+     * @param pointer   is pointer to value.
+     * @param liveBytes is live bytes by blob file numbers.
+     */
+    static void countLive(ByteBuffer pointer, Map<Integer, Long> liveBytes) {
+        liveBytes.merge(pointer.getInt(pointer.position()), (long) valueLength(pointer), Long::sum);
+    }
+
+    static int valueLength(ByteBuffer pointer) {
+        return pointer.getInt(pointer.position() + Integer.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Chooses blob files whose live values are moved by the next compaction.
+     *
+     * @param liveBytes is live bytes by blob file numbers, counted over the compacted tables.
+     * @param bound     is number of the first table written by the compaction, later files are skipped.
+     * @return numbers of the chosen files.
+     */
+    Set<Integer> collectGarbage(Map<Integer, Long> liveBytes, int bound) {
+        Set<Integer> garbage = new HashSet<>();
+
+        for (Map.Entry<Integer, MappedFile> entry : blobFiles.entrySet()) {
+            long live = liveBytes.getOrDefault(entry.getKey(), 0L);
+
+            if (entry.getKey() < bound && live < entry.getValue().size() * MIN_LIVE_RATIO) {
+                garbage.add(entry.getKey());
+            }
+        }
+
+        garbageFiles = garbage;
+        return garbage;
+    }
+
+    /**
+     * Lists blob files numbered below {@code bound} and not listed in {@code fileNumbers},
+     * then forgets the collected garbage. Files from {@code bound} on were written during the compaction.
+     *
+     * @param fileNumbers is numbers of files to keep.
+     * @param bound       is number of the first table written by the compaction.
+     * @return numbers of files no table of the storage refers to.
+     */
+    Set<Integer> unusedFiles(Set<Integer> fileNumbers, int bound) {
+        garbageFiles = Collections.emptySet();
+
+        Set<Integer> unused = new HashSet<>();
+        for (Integer fileNumber : blobFiles.keySet()) {
+            if (fileNumber < bound && !fileNumbers.contains(fileNumber)) {
+                unused.add(fileNumber);
+            }
+        }
+
+        return unused;
+    }
+
+    /**
+     * Deletes blob files once no table that refers to them is read. The mappings are left
+     * to the garbage collector, because records returned by reads may still be views of them.
+     *
+     * @param fileNumbers is numbers of files to delete.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    void delete(Set<Integer> fileNumbers) throws IOException {
+        for (Integer fileNumber : fileNumbers) {
+            blobFiles.remove(fileNumber);
+            Files.deleteIfExists(blobPath(dir, fileNumber));
+        }
+    }
+
+    /**
+     * Deletes blob files left by writes that did not finish before the process stopped.
+     *
+     * @param fileNumber is number of the first table that was never installed.
+     * @throws IOException is thrown when an I/O error occurs.
+     */
+    void deleteFrom(int fileNumber) throws IOException {
+        for (Integer blobFileNumber : Set.copyOf(blobFiles.keySet())) {
+            if (blobFileNumber >= fileNumber) {
+                delete(blobFileNumber);
+            }
+        }
+    }
+
+    void linkTo(Path target) throws IOException {
+        for (Integer fileNumber : blobFiles.keySet()) {
+            SSTable.linkOrCopy(blobPath(dir, fileNumber), blobPath(target, fileNumber));
+        }
+    }
+
+    /**
+     * Opens writer of the blob file for the table with the given number.
+     * The file is created only if some value is appended.
+     *
+     * @param fileNumber is number of the table.
+     * @return writer.
+     */
+    Writer writer(int fileNumber) {
+        return new Writer(fileNumber);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Integer fileNumber : Set.copyOf(blobFiles.keySet())) {
+            MappedFile blobFile = blobFiles.remove(fileNumber);
+
+            if (blobFile != null) {
+                blobFile.close();
+            }
+        }
+    }
+
+    private void delete(int fileNumber) throws IOException {
+        MappedFile blobFile = blobFiles.remove(fileNumber);
+
+        if (blobFile != null) {
+            blobFile.close();
+        }
+
+        Files.deleteIfExists(blobPath(dir, fileNumber));
+    }
+
+    private static Path blobPath(Path dir, int fileNumber) {
+        return dir.resolve(BLOB_FILE + fileNumber + BLOB_FILE_END);
+    }
+
+    /**
+     * Appends values of one table to its blob file.
+     */
+    final class Writer implements Closeable {
+        private final int fileNumber;
+        private final ByteBuffer pointer = ByteBuffer.allocate(POINTER_SIZE);
+
+        private FileChannel fileChannel;
+        private long position;
+
+        private Writer(int fileNumber) {
+            this.fileNumber = fileNumber;
+        }
+
+        boolean accepts(ByteBuffer value) {
+            return value.remaining() >= threshold;
+        }
+
+        /**
+         * Appends value to the blob file.
+         *
+         * @param value is value.
+         * @return pointer to the value, valid until the next call.
+         * @throws IOException is thrown when an I/O error occurs.
+         */
+        ByteBuffer append(ByteBuffer value) throws IOException {
+            if (fileChannel == null) {
+                fileChannel = FileChannel.open(
+                        blobPath(dir, fileNumber),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING
+                );
+            }
+
+            ByteBuffer data = value.duplicate();
+            int length = data.remaining();
+
+            while (data.hasRemaining()) {
+                fileChannel.write(data);
+            }
+
+            pointer.clear()
+                    .putInt(fileNumber)
+                    .putLong(position)
+                    .putInt(length)
+                    .flip();
+
+            position += length;
+
+            return pointer;
+        }
+
+        /**
+         * Moves value out of a garbage blob file, other pointers are returned as they are.
+         *
+         * @param storedPointer is pointer read from a table.
+         * @return pointer to write.
+         * @throws IOException is thrown when an I/O error occurs.
+         */
+        ByteBuffer relocate(ByteBuffer storedPointer) throws IOException {
+            if (garbageFiles.contains(storedPointer.getInt(storedPointer.position()))) {
+                return append(read(storedPointer));
+            }
+
+            return storedPointer;
+        }
+
+        /**
+         * Makes the blob file durable and readable, must be called before its table is installed.
+         *
+         * @throws IOException is thrown when an I/O error occurs.
+         */
+        @Override
+        public void close() throws IOException {
+            if (fileChannel == null) {
+                return;
+            }
+
+            FileChannel channel = fileChannel;
+            fileChannel = null;
+
+            try (channel) {
+                channel.force(false);
+            }
+
+            blobFiles.put(fileNumber, MappedFile.map(blobPath(dir, fileNumber)));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ru.mail.polis.lsm.sachuk.ilya.iterators;
+
+import ru.mail.polis.lsm.Cursor;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges cursors without allocating per record.
+ * Cursors later in the list are newer and hide records with the same key from earlier ones, tombstones are skipped.
+ */
+public class MergeCursor implements Cursor {
+
+    private final PriorityQueue<Source> queue;
+
+    private Source current;
+
+    /**
+     * Creates merge of cursors.
+     *
+     * @param cursors is list of cursors from the oldest to the newest.
+     */
+    public MergeCursor(List<RecordCursor> cursors) {
+        this.queue = new PriorityQueue<>(Math.max(1, cursors.size()));
+
+        for (int i = 0; i < cursors.size(); i++) {
+            Source source = new Source(cursors.get(i), i);
+
+            if (source.cursor.next()) {
+                queue.add(source);
+            }
+        }
+    }
+
+    @Override
+    public boolean next() {
+        if (current != null) {
+            advance(current);
+            current = null;
+        }
+
+        while (!queue.isEmpty()) {
+            Source top = queue.poll();
+
+            while (!queue.isEmpty() && queue.peek().cursor.key().equals(top.cursor.key())) {
+                advance(queue.poll());
+            }
+
+            if (!top.cursor.isTombstone()) {
+                current = top;
+                return true;
+            }
+
+            advance(top);
+        }
+
+        return false;
+    }
+
+    @Override
+    public ByteBuffer key() {
+        return current.cursor.key();
+    }
+
+    @Override
+    public ByteBuffer value() {
+        return current.cursor.value();
+    }
+
+    public boolean isBlobPointer() {
+        return current.cursor.isBlobPointer();
+    }
+
+    private void advance(Source source) {
+        if (source.cursor.next()) {
+            queue.add(source);
+        }
+    }
+
+    private static final class Source implements Comparable<Source> {
+        private final RecordCursor cursor;
+        private final int priority;
+
+        private Source(RecordCursor cursor, int priority) {
+            this.cursor = cursor;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Source other) {
+            int compare = cursor.key().compareTo(other.cursor.key());
+
+            return compare == 0 ? Integer.compare(other.priority, priority) : compare;
+        }
+    }
+}
@@ -20,7 +20,7 @@ public class MergeIterator implements Iterator<Record> {
 
     @Override
     public boolean hasNext() {
-        return leftIterator.hasNext() || rightIterator.hasNext();
+        return leftRecord != null || rightRecord != null || leftIterator.hasNext() || rightIterator.hasNext();
     }
 
     @Override
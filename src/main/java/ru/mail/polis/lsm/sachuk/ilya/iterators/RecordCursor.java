@@ -0,0 +1,19 @@
+package ru.mail.polis.lsm.sachuk.ilya.iterators;
+
+import ru.mail.polis.lsm.Cursor;
+
+/**
+ * Cursor that also shows deleted records, so they can hide older values while merging.
+ */
+public interface RecordCursor extends Cursor {
+    boolean isTombstone();
+
+    /**
+     * Tells whether {@link #value()} is a pointer to the value log rather than the value itself.
+     *
+     * @return {@code true} if the value is a pointer
+     */
+    default boolean isBlobPointer() {
+        return false;
+    }
+}
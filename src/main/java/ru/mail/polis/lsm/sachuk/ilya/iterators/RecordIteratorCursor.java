@@ -0,0 +1,51 @@
+package ru.mail.polis.lsm.sachuk.ilya.iterators;
+
+import ru.mail.polis.lsm.Record;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+public class RecordIteratorCursor implements RecordCursor {
+
+    private final Iterator<Record> iterator;
+
+    private ByteBuffer key;
+    private ByteBuffer value;
+    private boolean tombstone;
+
+    public RecordIteratorCursor(Iterator<Record> iterator) {
+        this.iterator = iterator;
+    }
+
+    @Override
+    public boolean next() {
+        if (!iterator.hasNext()) {
+            key = null;
+            value = null;
+            return false;
+        }
+
+        Record record = iterator.next();
+
+        key = record.getKey();
+        value = record.getValue();
+        tombstone = record.isTombstone();
+
+        return true;
+    }
+
+    @Override
+    public ByteBuffer key() {
+        return key;
+    }
+
+    @Override
+    public ByteBuffer value() {
+        return value;
+    }
+
+    @Override
+    public boolean isTombstone() {
+        return tombstone;
+    }
+}
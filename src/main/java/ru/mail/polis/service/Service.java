@@ -26,6 +26,19 @@ package ru.mail.polis.service;
  * Returns {@code 200} and data if found, {@code 404} if not found.</li>
  * <li>{@code PUT /v0/entity?id=<ID>} -- upsert (create or replace) data by {@code ID}. Returns {@code 201}.</li>
  * <li>{@code DELETE /v0/entity?id=<ID>} -- remove data by {@code ID}. Returns {@code 202}.</li>
+ * <li>{@code GET /v0/entities?start=<ID>&end=<ID>&limit=<N>&continuation=<TOKEN>} -- get a page of records
+ * in {@code [start, end)}. Returns {@code 200} and the records, with a continuation token of the next page
+ * in {@code X-Continuation-Token} header if the range goes on.</li>
+ * <li>{@code POST /v0/entities/get} -- get values of many ids listed in the body. Returns {@code 200}
+ * and the values in the order of the ids.</li>
+ * <li>{@code POST /v0/entities/put} -- upsert or remove many records listed in the body. Returns {@code 201}.</li>
+ * <li>{@code GET /v0/entities/stream?start=<ID>&end=<ID>} -- get all records in {@code [start, end)}
+ * as a chunked response.</li>
+ * <li>{@code POST /v0/admin/checkpoint?path=<DIR>} -- make checkpoint of the storage in {@code DIR}.
+ * Returns {@code 201}, or {@code 409} if {@code DIR} is not empty.</li>
+ * <li>{@code GET /v0/admin/size?start=<ID>&end=<ID>} -- estimate size and number of records
+ * in {@code [start, end)}. Returns {@code 200}.</li>
+ * <li>{@code GET /v0/admin/workers} -- get load of the worker pool. Returns {@code 200}.</li>
  * </ul>
  *
  * <p>{@code ID} is a non empty char sequence.
@@ -34,6 +47,7 @@ package ru.mail.polis.service;
  * <ul>
  * <li>{@code 4xx} for malformed requests</li>
  * <li>{@code 5xx} for internal errors</li>
+ * <li>{@code 503} if the storage is overloaded and the request can't be queued</li>
  * </ul>
  *
  * @author Vadim Tsesko
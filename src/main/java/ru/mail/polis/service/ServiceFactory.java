@@ -17,8 +17,11 @@
 package ru.mail.polis.service;
 
 import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.service.sachuk.ilya.ServiceImpl;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Objects;
 
 /**
@@ -43,6 +46,21 @@ public final class ServiceFactory {
     public static Service create(
             final int port,
             final DAO dao) throws IOException {
+        return create(port, dao, null);
+    }
+
+    /**
+     * Construct a storage instance that makes checkpoints on request.
+     *
+     * @param port        port to bind HTTP server to
+     * @param dao         DAO to store the data
+     * @param checkpoints directory to make checkpoints in, {@code null} to disable them
+     * @return a storage instance
+     */
+    public static Service create(
+            final int port,
+            final DAO dao,
+            @Nullable final Path checkpoints) throws IOException {
         if (Runtime.getRuntime().maxMemory() > MAX_HEAP) {
             throw new IllegalStateException("The heap is too big. Consider setting Xmx.");
         }
@@ -53,6 +71,6 @@ public final class ServiceFactory {
 
         Objects.requireNonNull(dao);
 
-        throw new UnsupportedOperationException("Implement me!");
+        return new ServiceImpl(port, dao, checkpoints);
     }
 }
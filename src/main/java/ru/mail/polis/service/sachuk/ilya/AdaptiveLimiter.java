@@ -0,0 +1,129 @@
+package ru.mail.polis.service.sachuk.ilya;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limit of storage operations in flight adjusted by their latency.
+ *
+ * <p>Latencies are collected in windows. At the end of a window its average latency is compared with
+ * the minimal one: while it stays within {@link #TOLERANCE} of the minimum and the limit was used,
+ * the limit grows by its square root, when latency grows the limit is cut in proportion.
+ * The minimal latency follows the windows slowly upwards, so a lasting change of the load,
+ * like a running compaction, becomes the new baseline instead of shrinking the limit forever.
+ *
+ * <p>Writes may use only {@link #WRITE_SHARE} of the limit, the rest is kept for reads.
+ */
+final class AdaptiveLimiter {
+
+    static final int WINDOW_SAMPLES = 100;
+
+    /**
+     * Average latency of a window may be this many times the minimal one before the limit is cut.
+     */
+    private static final double TOLERANCE = 2.0;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double MIN_RTT_DRIFT = 0.05;
+    private static final double WRITE_SHARE = 0.8;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder shed = new LongAdder();
+
+    private volatile int limit;
+
+    private long minRtt;
+    private long windowMinRtt = Long.MAX_VALUE;
+    private long windowRttSum;
+    private int windowSamples;
+    private int windowMaxInFlight;
+
+    AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Takes a place for an operation if the limit allows it.
+     *
+     * @param write is whether the operation writes.
+     * @return {@code true} if the operation may run, then {@link #release} must be called.
+     */
+    boolean tryAcquire(boolean write) {
+        int allowed = write ? Math.max(1, (int) (limit * WRITE_SHARE)) : limit;
+
+        while (true) {
+            int current = inFlight.get();
+
+            if (current >= allowed) {
+                shed.increment();
+                return false;
+            }
+
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the place of a finished operation.
+     *
+     * @param rttNanos is time from acquiring to the end of the operation, negative if it didn't run
+     *                 or its time tells nothing about the load.
+     */
+    void release(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+
+        if (rttNanos >= 0) {
+            sample(rttNanos, current);
+        }
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    long getShed() {
+        return shed.sum();
+    }
+
+    private synchronized void sample(long rttNanos, int inFlightBefore) {
+        windowMinRtt = Math.min(windowMinRtt, rttNanos);
+        windowRttSum += rttNanos;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightBefore);
+
+        if (++windowSamples < WINDOW_SAMPLES) {
+            return;
+        }
+
+        long averageRtt = windowRttSum / windowSamples;
+
+        if (minRtt == 0 || windowMinRtt < minRtt) {
+            minRtt = windowMinRtt;
+        } else {
+            minRtt += (long) ((windowMinRtt - minRtt) * MIN_RTT_DRIFT);
+        }
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * minRtt / Math.max(1, averageRtt)));
+        double newLimit = limit * gradient;
+
+        // Grow only if the limit was actually reached, idle periods tell nothing about capacity
+        if (gradient == 1.0 && windowMaxInFlight * 2 >= limit) {
+            newLimit += Math.sqrt(limit);
+        }
+
+        limit = (int) Math.max(minLimit, Math.min(maxLimit, Math.round(newLimit)));
+
+        windowMinRtt = Long.MAX_VALUE;
+        windowRttSum = 0;
+        windowSamples = 0;
+        windowMaxInFlight = 0;
+    }
+}
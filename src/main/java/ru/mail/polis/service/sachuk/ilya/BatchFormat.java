@@ -0,0 +1,145 @@
+package ru.mail.polis.service.sachuk.ilya;
+
+import ru.mail.polis.lsm.Record;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bodies of batch requests, all sizes are big-endian ints.
+ *
+ * <p>Get request is {@code [int id size][id]} per id and its response is {@code [int value size][value]}
+ * per id in the same order, with size {@link #ABSENT} for a missing id. Put request is
+ * {@code [int id size][id][int value size][value]} per record, size {@link #ABSENT} deletes the id.
+ * Ids and values are views of the request body, nothing is copied.
+ *
+ * <p>Get request may have at most {@link #MAX_IDS} ids and its response at most {@link #MAX_RESPONSE_SIZE} bytes,
+ * so that one request can't take the heap of the service.
+ */
+final class BatchFormat {
+
+    static final int ABSENT = -1;
+    static final int MAX_IDS = 1024;
+    static final int MAX_RESPONSE_SIZE = 16 * 1024 * 1024;
+
+    private BatchFormat() {
+    }
+
+    /**
+     * Reads ids of a get request.
+     *
+     * @param body is request body.
+     * @return ids in the request order.
+     * @throws IllegalArgumentException if the body is malformed or has more than {@link #MAX_IDS} ids.
+     */
+    static List<ByteBuffer> readIds(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        List<ByteBuffer> ids = new ArrayList<>();
+
+        while (buffer.hasRemaining()) {
+            ByteBuffer id = readPart(buffer);
+
+            if (id == null || !id.hasRemaining()) {
+                throw new IllegalArgumentException("Empty id");
+            }
+
+            if (ids.size() == MAX_IDS) {
+                throw new IllegalArgumentException("More than " + MAX_IDS + " ids");
+            }
+
+            ids.add(id);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Reads records of a put request.
+     *
+     * @param body is request body.
+     * @return records in the request order.
+     * @throws IllegalArgumentException if the body is malformed.
+     */
+    static List<Record> readRecords(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        List<Record> records = new ArrayList<>();
+
+        while (buffer.hasRemaining()) {
+            ByteBuffer id = readPart(buffer);
+
+            if (id == null || !id.hasRemaining()) {
+                throw new IllegalArgumentException("Empty id");
+            }
+
+            ByteBuffer value = readPart(buffer);
+            records.add(value == null ? Record.tombstone(id) : Record.of(id, value));
+        }
+
+        return records;
+    }
+
+    /**
+     * Returns size of the record in the response of a get request.
+     *
+     * @param record is found record, {@code null} for a missing id.
+     * @return size in bytes.
+     */
+    static int valueSize(@Nullable Record record) {
+        return Integer.BYTES + (record == null ? 0 : record.getValueSize());
+    }
+
+    /**
+     * Writes response of a get request.
+     *
+     * @param records is found records in the request order, {@code null} for missing ids.
+     * @return response body.
+     * @throws IllegalArgumentException if the response takes more than {@link #MAX_RESPONSE_SIZE} bytes.
+     */
+    static byte[] writeValues(List<Record> records) {
+        long size = 0;
+        for (Record record : records) {
+            size += valueSize(record);
+        }
+
+        if (size > MAX_RESPONSE_SIZE) {
+            throw new IllegalArgumentException("Response is too large");
+        }
+
+        ByteBuffer body = ByteBuffer.allocate((int) size);
+
+        for (Record record : records) {
+            if (record == null) {
+                body.putInt(ABSENT);
+            } else {
+                ByteBuffer value = record.getValue();
+                body.putInt(value.remaining()).put(value.duplicate());
+            }
+        }
+
+        return body.array();
+    }
+
+    @Nullable
+    private static ByteBuffer readPart(ByteBuffer buffer) {
+        if (buffer.remaining() < Integer.BYTES) {
+            throw new IllegalArgumentException("Truncated size");
+        }
+
+        int size = buffer.getInt();
+
+        if (size == ABSENT) {
+            return null;
+        }
+
+        if (size < 0 || size > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad size " + size);
+        }
+
+        ByteBuffer part = buffer.slice().limit(size);
+        buffer.position(buffer.position() + size);
+
+        return part;
+    }
+}
@@ -0,0 +1,139 @@
+package ru.mail.polis.service.sachuk.ilya;
+
+import one.nio.http.Response;
+import ru.mail.polis.lsm.Record;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Collects a page of records into a response body as they are published.
+ *
+ * <p>Body is {@code [int key size][key][int value size][value]} per record. One record more than the limit
+ * is requested to tell whether the range goes on, then the response has a continuation token
+ * with the last key of the page in the {@link #CONTINUATION_HEADER} header. A page also ends
+ * once its body passes {@link #MAX_PAGE_BYTES}, so large values make pages of fewer records
+ * instead of running the heap out; a page has at least one record whatever its size.
+ */
+final class PageSubscriber implements Flow.Subscriber<Record> {
+
+    static final String CONTINUATION_HEADER = "X-Continuation-Token";
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_PAGE_BYTES = 1024 * 1024;
+
+    private final int limit;
+    private final CompletableFuture<Response> response = new CompletableFuture<>();
+
+    private Flow.Subscription subscription;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int size;
+    private int count;
+    private int lastKeyPosition;
+    private int lastKeySize;
+
+    PageSubscriber(int limit) {
+        this.limit = limit;
+    }
+
+    CompletableFuture<Response> response() {
+        return response;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(limit + 1L);
+    }
+
+    @Override
+    public void onNext(Record record) {
+        if (count == limit || size >= MAX_PAGE_BYTES) {
+            subscription.cancel();
+            complete(token());
+            return;
+        }
+
+        ByteBuffer key = record.getKey();
+        ByteBuffer value = record.getValue();
+
+        ensureCapacity(Integer.BYTES * 2L + key.remaining() + value.remaining());
+
+        lastKeySize = key.remaining();
+        lastKeyPosition = size + Integer.BYTES;
+        put(key);
+        put(value);
+
+        count++;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        response.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        complete(null);
+    }
+
+    /**
+     * Decodes the last key of a page from its continuation token.
+     *
+     * @param token is token of the page.
+     * @return the last key.
+     * @throws IllegalArgumentException if the token is malformed.
+     */
+    static ByteBuffer lastKey(String token) {
+        return ByteBuffer.wrap(Base64.getUrlDecoder().decode(token));
+    }
+
+    private String token() {
+        byte[] lastKey = Arrays.copyOfRange(buffer, lastKeyPosition, lastKeyPosition + lastKeySize);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(lastKey);
+    }
+
+    private void complete(@Nullable String token) {
+        if (response.isDone()) {
+            return;
+        }
+
+        Response page = Response.ok(size == buffer.length ? buffer : Arrays.copyOf(buffer, size));
+
+        if (token != null) {
+            page.addHeader(CONTINUATION_HEADER + ": " + token);
+        }
+
+        response.complete(page);
+    }
+
+    private void put(ByteBuffer data) {
+        int length = data.remaining();
+
+        buffer[size] = (byte) (length >>> 24);
+        buffer[size + 1] = (byte) (length >>> 16);
+        buffer[size + 2] = (byte) (length >>> 8);
+        buffer[size + 3] = (byte) length;
+        size += Integer.BYTES;
+
+        data.duplicate().get(buffer, size, length);
+        size += length;
+    }
+
+    private void ensureCapacity(long bytes) {
+        long required = size + bytes;
+
+        if (required > Integer.MAX_VALUE - Integer.BYTES) {
+            throw new IllegalStateException("Page is too large");
+        }
+
+        if (required > buffer.length) {
+            long grown = Math.max(required, buffer.length * 2L);
+            buffer = Arrays.copyOf(buffer, (int) Math.min(grown, Integer.MAX_VALUE - Integer.BYTES));
+        }
+    }
+}
@@ -0,0 +1,612 @@
+package ru.mail.polis.service.sachuk.ilya;
+
+import one.nio.http.HttpServer;
+import one.nio.http.HttpServerConfig;
+import one.nio.http.HttpSession;
+import one.nio.http.Param;
+import one.nio.http.Path;
+import one.nio.http.Request;
+import one.nio.http.RequestMethod;
+import one.nio.http.Response;
+import one.nio.net.Socket;
+import one.nio.server.AcceptorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.Record;
+import ru.mail.polis.service.Service;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+public class ServiceImpl extends HttpServer implements Service {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceImpl.class);
+
+    private static final int DEFAULT_PAGE_LIMIT = 1000;
+    private static final int MAX_PAGE_LIMIT = 10_000;
+
+    private static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    private final DAO dao;
+
+    /**
+     * Directory checkpoints are made in, {@code null} if they are disabled.
+     */
+    @Nullable
+    private final java.nio.file.Path checkpoints;
+    private final ThreadPoolExecutor workers;
+    private final AdaptiveLimiter limiter;
+    private final LongAdder rejectedRequests = new LongAdder();
+
+    public ServiceImpl(int port, DAO dao, @Nullable java.nio.file.Path checkpoints) throws IOException {
+        this(port, dao, 0, DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY, checkpoints);
+    }
+
+    /**
+     * Creates service whose selector threads only parse requests, storage operations run on workers.
+     *
+     * @param port          is port to listen.
+     * @param dao           is storage.
+     * @param selectors     is number of selector threads, zero for the default of one-nio.
+     * @param workers       is number of worker threads.
+     * @param queueCapacity is number of requests waiting for a worker, requests beyond it are answered with 503.
+     *                      Requests in flight are also limited by latency of the storage, starting
+     *                      from twice the number of workers.
+     * @param checkpoints   is directory checkpoints are made in, {@code null} to disable them.
+     * @throws IOException is thrown when the server can't be created.
+     */
+    public ServiceImpl(
+            int port,
+            DAO dao,
+            int selectors,
+            int workers,
+            int queueCapacity,
+            @Nullable java.nio.file.Path checkpoints
+    ) throws IOException {
+        super(from(port, selectors));
+        this.dao = dao;
+        this.checkpoints = checkpoints == null ? null : checkpoints.toAbsolutePath().normalize();
+        this.workers = new ThreadPoolExecutor(
+                workers,
+                workers,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                workerThreads()
+        );
+        this.limiter = new AdaptiveLimiter(workers * 2, 1, workers + queueCapacity);
+    }
+
+    private static HttpServerConfig from(int port, int selectors) {
+        HttpServerConfig config = new HttpServerConfig();
+        AcceptorConfig acceptor = new AcceptorConfig();
+
+        acceptor.port = port;
+        acceptor.reusePort = true;
+
+        config.acceptors = new AcceptorConfig[]{acceptor};
+        config.selectors = selectors;
+
+        return config;
+    }
+
+    private static ThreadFactory workerThreads() {
+        AtomicInteger counter = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, "service-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Path("/v0/status")
+    public Response status() {
+        return Response.ok("OK");
+    }
+
+    /**
+     * Handles get, put and delete of entity, put without a body is answered with 400.
+     * The storage is accessed on a worker, so selector threads never wait for disk.
+     * A request over the adaptive limit of requests in flight, which keeps a share for reads,
+     * or finding the worker queue full is answered with 503 and {@code Retry-After} at once.
+     *
+     * @param request is request.
+     * @param session is session to send response to.
+     * @param id      is id of entity.
+     * @throws IOException is thrown when the response can't be sent.
+     */
+    @Path("/v0/entity")
+    public void entity(
+            Request request,
+            HttpSession session,
+            @Param(value = "id", required = true) String id
+    ) throws IOException {
+        if (id.isBlank()) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+            return;
+        }
+
+        ByteBuffer key = ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8));
+        Supplier<Response> operation;
+
+        switch (request.getMethod()) {
+            case Request.METHOD_GET:
+                operation = () -> get(key);
+                break;
+            case Request.METHOD_PUT:
+                if (request.getBody() == null) {
+                    session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+                    return;
+                }
+                operation = () -> put(key, request.getBody());
+                break;
+            case Request.METHOD_DELETE:
+                operation = () -> delete(key);
+                break;
+            default:
+                session.sendResponse(new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY));
+                return;
+        }
+
+        execute(session, operation, request.getMethod() != Request.METHOD_GET);
+    }
+
+    /**
+     * Gets values of many ids in one request, the body is described by {@link BatchFormat}.
+     * Ids are looked up in key order, so neighbouring ids are read from the same parts of tables.
+     * A request with more than {@link BatchFormat#MAX_IDS} ids is answered with 400, a request whose values
+     * take more than {@link BatchFormat#MAX_RESPONSE_SIZE} bytes with 413.
+     *
+     * @param request is request.
+     * @param session is session to send response to.
+     * @throws IOException is thrown when the response can't be sent.
+     */
+    @Path("/v0/entities/get")
+    @RequestMethod(Request.METHOD_POST)
+    public void getBatch(Request request, HttpSession session) throws IOException {
+        List<ByteBuffer> ids;
+        try {
+            ids = BatchFormat.readIds(bodyOf(request));
+        } catch (IllegalArgumentException e) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+            return;
+        }
+
+        execute(session, () -> values(ids), false);
+    }
+
+    /**
+     * Upserts and deletes many records in one request, the body is described by {@link BatchFormat}.
+     * Records are applied in key order, records of the same id keep the request order.
+     *
+     * @param request is request.
+     * @param session is session to send response to.
+     * @throws IOException is thrown when the response can't be sent.
+     */
+    @Path("/v0/entities/put")
+    @RequestMethod(Request.METHOD_POST)
+    public void putBatch(Request request, HttpSession session) throws IOException {
+        byte[] body = request.getBody();
+        if (body == null) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+            return;
+        }
+
+        List<Record> records;
+        try {
+            records = BatchFormat.readRecords(body);
+        } catch (IllegalArgumentException e) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+            return;
+        }
+
+        execute(session, () -> putAll(records), true);
+    }
+
+    /**
+     * Returns a page of records in {@code [start, end)}, at most {@code limit} of them
+     * and fewer if their values are large, see {@link PageSubscriber}.
+     * If the range goes on, the response has a continuation token, the next page is requested
+     * with the same parameters and the token. The server keeps nothing between pages.
+     * Records are read on the bounded read executor of the storage, a page it rejects is answered with 503.
+     * The page counts as a read in flight for the adaptive limiter until its response is made,
+     * but gives it no latency sample: its time depends on the length of the range rather than on the load.
+     *
+     * @param session      is session to send response to.
+     * @param start        is first id, inclusive, absent for the start of the storage.
+     * @param end          is last id, exclusive, absent for the end of the storage.
+     * @param limit        is maximum number of records, {@value #DEFAULT_PAGE_LIMIT} if absent.
+     * @param continuation is token of the previous page.
+     * @throws IOException is thrown when the response can't be sent.
+     */
+    @Path("/v0/entities")
+    @RequestMethod(Request.METHOD_GET)
+    public void entities(
+            HttpSession session,
+            @Param("start") String start,
+            @Param("end") String end,
+            @Param("limit") String limit,
+            @Param("continuation") String continuation
+    ) throws IOException {
+        int pageLimit;
+        ByteBuffer fromKey;
+        try {
+            pageLimit = limit == null ? DEFAULT_PAGE_LIMIT : Integer.parseInt(limit);
+            fromKey = continuation == null ? toKey(start) : DAO.nextKey(PageSubscriber.lastKey(continuation));
+        } catch (IllegalArgumentException e) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+            return;
+        }
+
+        if (pageLimit <= 0 || pageLimit > MAX_PAGE_LIMIT) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+            return;
+        }
+
+        if (!limiter.tryAcquire(false)) {
+            session.sendResponse(overloaded());
+            return;
+        }
+
+        PageSubscriber page = new PageSubscriber(pageLimit);
+        page.response().whenComplete((result, error) -> {
+            limiter.release(-1);
+            sendResponse(session, result, error);
+        });
+
+        dao.rangeAsync(fromKey, toKey(end)).subscribe(page);
+    }
+
+    /**
+     * Streams all records in {@code [start, end)} as a chunked response, read as fast as the client takes them.
+     * Records are read on the bounded read executor of the storage, a stream it rejects is answered with 503.
+     * The stream counts as a read in flight for the adaptive limiter until it ends, fails or the client goes away,
+     * but gives it no latency sample: its time depends on how fast the client reads.
+     *
+     * @param session is session to send response to.
+     * @param start   is first id, inclusive, absent for the start of the storage.
+     * @param end     is last id, exclusive, absent for the end of the storage.
+     * @throws IOException is thrown when the response can't be sent.
+     */
+    @Path("/v0/entities/stream")
+    @RequestMethod(Request.METHOD_GET)
+    public void streamEntities(
+            HttpSession session,
+            @Param("start") String start,
+            @Param("end") String end
+    ) throws IOException {
+        if (!limiter.tryAcquire(false)) {
+            session.sendResponse(overloaded());
+            return;
+        }
+
+        ((StreamingSession) session).stream(
+                dao.rangeAsync(toKey(start), toKey(end)),
+                this::errorResponse,
+                error -> limiter.release(-1)
+        );
+    }
+
+    /**
+     * Returns load of the worker pool and the limit of requests in flight.
+     *
+     * @return response with {@code workers=<threads> active=<busy threads> queued=<waiting requests>
+     *     capacity=<free queue slots> completed=<requests> rejected=<requests>
+     *     limit=<requests> inFlight=<requests> shed=<requests>}.
+     */
+    @Path("/v0/admin/workers")
+    @RequestMethod(Request.METHOD_GET)
+    public Response workers() {
+        return Response.ok("workers=" + workers.getPoolSize()
+                + " active=" + workers.getActiveCount()
+                + " queued=" + workers.getQueue().size()
+                + " capacity=" + workers.getQueue().remainingCapacity()
+                + " completed=" + workers.getCompletedTaskCount()
+                + " rejected=" + rejectedRequests.sum()
+                + " limit=" + limiter.getLimit()
+                + " inFlight=" + limiter.getInFlight()
+                + " shed=" + limiter.getShed());
+    }
+
+    /**
+     * Returns counters of the row cache of the storage.
+     *
+     * @return response with {@code hits=<lookups> misses=<lookups> hitRate=<share> evictions=<records>
+     *     count=<records> size=<bytes>}.
+     */
+    @Path("/v0/admin/cache")
+    @RequestMethod(Request.METHOD_GET)
+    public Response cache() {
+        return Response.ok(dao.rowCacheStats().toString());
+    }
+
+    /**
+     * Makes checkpoint of the storage in a directory under the checkpoint directory of the service,
+     * on a worker like writes. Paths that are absolute or go up with {@code ..} are answered with 400,
+     * a service without the checkpoint directory answers with 403.
+     *
+     * @param session is session to send response to.
+     * @param path    is absent or empty directory for the checkpoint, relative to the checkpoint directory.
+     * @throws IOException is thrown when the response can't be sent.
+     */
+    @Path("/v0/admin/checkpoint")
+    @RequestMethod(Request.METHOD_POST)
+    public void checkpoint(
+            HttpSession session,
+            @Param(value = "path", required = true) String path
+    ) throws IOException {
+        if (checkpoints == null) {
+            session.sendResponse(new Response(Response.FORBIDDEN, Response.EMPTY));
+            return;
+        }
+
+        java.nio.file.Path target = checkpointPath(checkpoints, path);
+        if (target == null) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+            return;
+        }
+
+        execute(session, () -> checkpoint(target), true);
+    }
+
+    /**
+     * Estimates size and number of records in {@code [start, end)} without reading them, on a worker.
+     * Absent bounds mean the start and the end of the storage.
+     *
+     * @param session is session to send response to.
+     * @param start   is first id, inclusive.
+     * @param end     is last id, exclusive.
+     * @throws IOException is thrown when the response can't be sent.
+     */
+    @Path("/v0/admin/size")
+    @RequestMethod(Request.METHOD_GET)
+    public void size(
+            HttpSession session,
+            @Param("start") String start,
+            @Param("end") String end
+    ) throws IOException {
+        ByteBuffer fromKey = toKey(start);
+        ByteBuffer toKey = toKey(end);
+
+        execute(session, () -> size(fromKey, toKey), false);
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        workers.shutdown();
+
+        try {
+            if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.warn("Workers didn't finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public HttpSession createSession(Socket socket) {
+        return new StreamingSession(socket, this);
+    }
+
+    @Override
+    public void handleDefault(Request request, HttpSession session) throws IOException {
+        session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+    }
+
+    @Nullable
+    private static ByteBuffer toKey(@Nullable String id) {
+        return id == null || id.isEmpty() ? null : ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs the operation on a worker if the limiter lets it in and the queue has room, otherwise answers with 503.
+     * Latency of the operation includes its time in the queue, so a growing queue shrinks the limit.
+     */
+    private void execute(HttpSession session, Supplier<Response> operation, boolean write) throws IOException {
+        if (!limiter.tryAcquire(write)) {
+            session.sendResponse(overloaded());
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            workers.execute(() -> {
+                Response response;
+                try {
+                    response = operation.get();
+                } catch (RuntimeException e) {
+                    limiter.release(-1);
+                    sendResponse(session, null, e);
+                    return;
+                }
+                limiter.release(System.nanoTime() - start);
+                sendResponse(session, response, null);
+            });
+        } catch (RejectedExecutionException e) {
+            limiter.release(-1);
+            rejectedRequests.increment();
+            session.sendResponse(overloaded());
+        }
+    }
+
+    private Response overloaded() {
+        incRequestsRejected();
+
+        Response response = new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY);
+        response.addHeader("Retry-After: " + RETRY_AFTER_SECONDS);
+        return response;
+    }
+
+    private void sendResponse(HttpSession session, @Nullable Response response, @Nullable Throwable error) {
+        try {
+            session.sendResponse(error == null ? response : errorResponse(error));
+        } catch (IOException e) {
+            LOG.error("Can't send response", e);
+        }
+    }
+
+    /**
+     * Answers a failed storage operation: with 503 if the storage rejected it as overloaded, otherwise with 500.
+     */
+    private Response errorResponse(Throwable error) {
+        if (error instanceof RejectedExecutionException) {
+            rejectedRequests.increment();
+            return overloaded();
+        }
+
+        LOG.error("Storage operation failed", error);
+        return new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+    }
+
+    /**
+     * Looks the key up keeping files of the storage mapped until the value is written,
+     * because the response is a view of the stored value.
+     */
+    private Response get(ByteBuffer key) {
+        Closeable files = dao.retainFiles();
+        Record record;
+        try {
+            record = dao.get(key);
+        } catch (RuntimeException e) {
+            closeFiles(files);
+            throw e;
+        }
+
+        if (record == null) {
+            closeFiles(files);
+            return new Response(Response.NOT_FOUND, Response.EMPTY);
+        }
+
+        return new ValueResponse(record.getValue(), files);
+    }
+
+    private static void closeFiles(Closeable files) {
+        try {
+            files.close();
+        } catch (IOException e) {
+            LOG.error("Can't release files of the storage", e);
+        }
+    }
+
+    /**
+     * Looks up values of the ids, stops as soon as they don't fit the response.
+     */
+    private Response values(List<ByteBuffer> ids) {
+        Integer[] order = new Integer[ids.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(ids::get));
+
+        Record[] records = new Record[order.length];
+        long size = 0;
+        for (int index : order) {
+            records[index] = dao.get(ids.get(index));
+            size += BatchFormat.valueSize(records[index]);
+
+            if (size > BatchFormat.MAX_RESPONSE_SIZE) {
+                return new Response(Response.REQUEST_ENTITY_TOO_LARGE, Response.EMPTY);
+            }
+        }
+
+        return Response.ok(BatchFormat.writeValues(Arrays.asList(records)));
+    }
+
+    private Response putAll(List<Record> records) {
+        List<Record> sortedRecords = new ArrayList<>(records);
+        sortedRecords.sort(Comparator.comparing(Record::getKey));
+
+        for (Record record : sortedRecords) {
+            dao.upsert(record);
+        }
+
+        return new Response(Response.CREATED, Response.EMPTY);
+    }
+
+    private static byte[] bodyOf(Request request) {
+        byte[] body = request.getBody();
+        return body == null ? Response.EMPTY : body;
+    }
+
+    private Response put(ByteBuffer key, byte[] body) {
+        dao.upsert(Record.of(key, ByteBuffer.wrap(body)));
+        return new Response(Response.CREATED, Response.EMPTY);
+    }
+
+    private Response delete(ByteBuffer key) {
+        dao.upsert(Record.tombstone(key));
+        return new Response(Response.ACCEPTED, Response.EMPTY);
+    }
+
+    /**
+     * Resolves path of a checkpoint under the directory.
+     *
+     * @return path of the checkpoint, {@code null} if it is not a relative path down the directory.
+     */
+    @Nullable
+    private static java.nio.file.Path checkpointPath(java.nio.file.Path directory, String path) {
+        java.nio.file.Path relative;
+        try {
+            relative = Paths.get(path);
+        } catch (InvalidPathException e) {
+            return null;
+        }
+
+        if (path.isEmpty() || relative.isAbsolute()) {
+            return null;
+        }
+        for (java.nio.file.Path name : relative) {
+            if ("..".equals(name.toString())) {
+                return null;
+            }
+        }
+
+        java.nio.file.Path target = directory.resolve(relative).normalize();
+        return target.startsWith(directory) && !target.equals(directory) ? target : null;
+    }
+
+    private Response checkpoint(java.nio.file.Path path) {
+        try {
+            dao.checkpoint(path);
+        } catch (FileAlreadyExistsException e) {
+            return new Response(Response.CONFLICT, Response.EMPTY);
+        } catch (IOException e) {
+            LOG.error("Can't make checkpoint at {}", path, e);
+            return new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+        }
+
+        return new Response(Response.CREATED, Response.EMPTY);
+    }
+
+    private Response size(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        long size = dao.approximateSize(fromKey, toKey);
+        long count = dao.approximateCount(fromKey, toKey);
+
+        return Response.ok("size=" + size + " count=" + count);
+    }
+}
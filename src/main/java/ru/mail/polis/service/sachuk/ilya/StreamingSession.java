@@ -0,0 +1,384 @@
+package ru.mail.polis.service.sachuk.ilya;
+
+import one.nio.http.HttpServer;
+import one.nio.http.HttpSession;
+import one.nio.http.Request;
+import one.nio.http.Response;
+import one.nio.net.Socket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.lsm.Record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Session that streams records of a range as a chunked response
+ * and writes large values from mapped files to the socket without copying them to heap.
+ *
+ * <p>Records are requested from the storage one at a time and collected into a chunk in the format
+ * of {@link PageSubscriber}, the chunk is written when it has {@link #BATCH_RECORDS} records
+ * or {@link #MAX_CHUNK_BYTES} bytes. Records for the next chunk are requested only when the socket took
+ * all queued data, so a slow client holds at most one chunk in memory whatever the sizes of values are,
+ * and records are read as fast as the network takes them. Requests made while the storage delivers
+ * a record only add to its demand, so requesting records one at a time costs no extra tasks. Headers are written with the first chunk: an error before it
+ * is answered with the given error response, an error after it closes the connection.
+ */
+final class StreamingSession extends HttpSession {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingSession.class);
+
+    private static final int BATCH_RECORDS = 256;
+
+    /**
+     * Chunk is written once its records take this many bytes, a single larger record makes a chunk of its own.
+     */
+    private static final int MAX_CHUNK_BYTES = 256 * 1024;
+
+    /**
+     * Values from mapped files of at least this size are written to the socket without copying.
+     */
+    private static final int DIRECT_WRITE_SIZE = 64 * 1024;
+    private static final int INITIAL_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Space before chunk data for its size, at most 8 hex digits and CRLF.
+     */
+    private static final int CHUNK_HEADER_SIZE = 10;
+    private static final int CHUNK_TRAILER_SIZE = 2;
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private ChunkSubscriber streaming;
+
+    StreamingSession(Socket socket, HttpServer server) {
+        super(socket, server);
+    }
+
+    /**
+     * Streams records as the response to the request being handled.
+     *
+     * @param records       is publisher of the records.
+     * @param errorResponse makes the response to an error that came before the headers were sent.
+     * @param finished      is called once when the stream is complete, with the error if it failed
+     *                      or with {@code null} if it was written or the connection was closed.
+     */
+    void stream(
+            Flow.Publisher<Record> records,
+            Function<Throwable, Response> errorResponse,
+            Consumer<Throwable> finished
+    ) {
+        records.subscribe(new ChunkSubscriber(handling, errorResponse, finished));
+    }
+
+    /**
+     * Writes a large value read from a mapped file straight from the mapping to the socket.
+     * The value is queued as an item that writes from the mapping as the socket takes it, so no part of it
+     * is copied to heap. The storage keeps the files mapped until the item is written or the session
+     * is closed, then they are released.
+     */
+    @Override
+    protected void writeResponse(Response response, boolean includeBody) throws IOException {
+        if (!(response instanceof ValueResponse)) {
+            super.writeResponse(response, includeBody);
+            return;
+        }
+
+        ValueResponse valueResponse = (ValueResponse) response;
+        ByteBuffer value = valueResponse.getValue();
+
+        if (!includeBody || !value.isDirect() || value.remaining() < DIRECT_WRITE_SIZE) {
+            try {
+                super.writeResponse(response, includeBody);
+            } finally {
+                valueResponse.files().close();
+            }
+            return;
+        }
+
+        MappedValueItem item = new MappedValueItem(value, valueResponse.files());
+        try {
+            byte[] head = response.toBytes(false);
+            write(head, 0, head.length);
+            write(item);
+        } catch (IOException | RuntimeException e) {
+            // A closing session rejects the item without releasing it
+            item.release();
+            throw e;
+        }
+    }
+
+    @Override
+    protected synchronized void processWrite() throws Exception {
+        super.processWrite();
+
+        if (streaming != null && queueHead == null) {
+            streaming.resume();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (streaming != null) {
+            streaming.cancel();
+            streaming = null;
+        }
+
+        super.close();
+    }
+
+    /**
+     * Value written from a mapped file, its files are released once when it is written or dropped by the session.
+     */
+    private static final class MappedValueItem extends QueueItem {
+        private final ByteBuffer value;
+        private final Closeable files;
+        private boolean released;
+
+        private MappedValueItem(ByteBuffer value, Closeable files) {
+            this.value = value;
+            this.files = files;
+        }
+
+        @Override
+        public int remaining() {
+            return value.remaining();
+        }
+
+        @Override
+        public int write(Socket socket) throws IOException {
+            return socket.write(value);
+        }
+
+        @Override
+        public void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+
+            try {
+                files.close();
+            } catch (IOException e) {
+                LOG.error("Can't release files of the response", e);
+            }
+        }
+    }
+
+    private final class ChunkSubscriber implements Flow.Subscriber<Record> {
+        private final Request request;
+        private final Function<Throwable, Response> errorResponse;
+        private final Consumer<Throwable> finished;
+
+        private Flow.Subscription subscription;
+        private byte[] chunk = new byte[INITIAL_CHUNK_SIZE];
+        private int size = CHUNK_HEADER_SIZE;
+        private int received;
+        private boolean started;
+        private boolean suspended;
+
+        private ChunkSubscriber(
+                Request request,
+                Function<Throwable, Response> errorResponse,
+                Consumer<Throwable> finished
+        ) {
+            this.request = request;
+            this.errorResponse = errorResponse;
+            this.finished = finished;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+
+            synchronized (StreamingSession.this) {
+                streaming = this;
+            }
+
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(Record record) {
+            ByteBuffer key = record.getKey();
+            ByteBuffer value = record.getValue();
+
+            ensureCapacity(Integer.BYTES * 2L + key.remaining() + value.remaining());
+            put(key);
+            put(value);
+
+            if (++received < BATCH_RECORDS && size - CHUNK_HEADER_SIZE < MAX_CHUNK_BYTES) {
+                subscription.request(1);
+                return;
+            }
+            received = 0;
+
+            synchronized (StreamingSession.this) {
+                if (streaming != this) {
+                    return;
+                }
+
+                try {
+                    writeChunk();
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+
+                if (queueHead == null) {
+                    subscription.request(1);
+                } else {
+                    suspended = true;
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            synchronized (StreamingSession.this) {
+                if (streaming != this) {
+                    return;
+                }
+                streaming = null;
+                finished.accept(throwable);
+
+                if (started) {
+                    LOG.error("Can't stream range", throwable);
+                    StreamingSession.this.close();
+                    return;
+                }
+
+                try {
+                    sendResponse(errorResponse.apply(throwable));
+                } catch (IOException e) {
+                    LOG.error("Can't send response", e);
+                }
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (StreamingSession.this) {
+                if (streaming != this) {
+                    return;
+                }
+
+                try {
+                    writeChunk();
+                    write(LAST_CHUNK, 0, LAST_CHUNK.length);
+                    streaming = null;
+                    finished.accept(null);
+                    finishRequest();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        /**
+         * Requests records of the next chunk after the socket took the previous one,
+         * must be called under the session lock.
+         */
+        private void resume() {
+            if (suspended) {
+                suspended = false;
+                subscription.request(1);
+            }
+        }
+
+        private void cancel() {
+            subscription.cancel();
+            finished.accept(null);
+        }
+
+        private void fail(IOException e) {
+            LOG.debug("Client stopped reading the stream", e);
+            StreamingSession.this.close();
+        }
+
+        /**
+         * Writes the collected records as a chunk, the chunk array is handed to the session
+         * because the session queues it without copying when the socket is busy.
+         */
+        private void writeChunk() throws IOException {
+            if (!started) {
+                Response response = new Response(Response.OK);
+                response.addHeader("Transfer-Encoding: chunked");
+                response.addHeader(isKeepAlive() ? "Connection: Keep-Alive" : "Connection: close");
+                writeResponse(response, false);
+                started = true;
+            }
+
+            int dataSize = size - CHUNK_HEADER_SIZE;
+            if (dataSize == 0) {
+                return;
+            }
+
+            byte[] header = (Integer.toHexString(dataSize) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            int offset = CHUNK_HEADER_SIZE - header.length;
+            System.arraycopy(header, 0, chunk, offset, header.length);
+            chunk[size] = '\r';
+            chunk[size + 1] = '\n';
+
+            byte[] written = chunk;
+            int writtenSize = size + CHUNK_TRAILER_SIZE;
+
+            chunk = new byte[INITIAL_CHUNK_SIZE];
+            size = CHUNK_HEADER_SIZE;
+
+            write(written, offset, writtenSize - offset);
+        }
+
+        private void finishRequest() throws IOException {
+            server.incRequestsProcessed();
+
+            if (!isKeepAlive()) {
+                scheduleClose();
+            }
+
+            handling = pipeline.pollFirst();
+            if (handling != null) {
+                if (handling == FIN) {
+                    scheduleClose();
+                } else {
+                    server.handleRequest(handling, StreamingSession.this);
+                }
+            }
+        }
+
+        private boolean isKeepAlive() {
+            return !"close".equalsIgnoreCase(request.getHeader("Connection:"));
+        }
+
+        private void put(ByteBuffer data) {
+            int length = data.remaining();
+
+            chunk[size] = (byte) (length >>> 24);
+            chunk[size + 1] = (byte) (length >>> 16);
+            chunk[size + 2] = (byte) (length >>> 8);
+            chunk[size + 3] = (byte) length;
+            size += Integer.BYTES;
+
+            data.duplicate().get(chunk, size, length);
+            size += length;
+        }
+
+        private void ensureCapacity(long bytes) {
+            long required = size + bytes + CHUNK_TRAILER_SIZE;
+
+            if (required > Integer.MAX_VALUE - Integer.BYTES) {
+                throw new IllegalStateException("Chunk is too large");
+            }
+
+            if (required > chunk.length) {
+                long grown = Math.max(required, chunk.length * 2L);
+                chunk = Arrays.copyOf(chunk, (int) Math.min(grown, Integer.MAX_VALUE - Integer.BYTES));
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ru.mail.polis.service.sachuk.ilya;
+
+import one.nio.http.Response;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Successful response with a value of the storage as the body.
+ *
+ * <p>The value is a view of the stored bytes and is copied only once, into the bytes of the whole response,
+ * instead of into a body array first and then into the response. Headers are ASCII.
+ * Files of the storage the value is read from stay mapped until {@link #files()} is closed
+ * after the response is written.
+ */
+final class ValueResponse extends Response {
+
+    private static final byte[] STATUS_LINE = ("HTTP/1.1 " + OK + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final ByteBuffer value;
+    private final Closeable files;
+    private final List<String> headers = new ArrayList<>(1);
+
+    ValueResponse(ByteBuffer value, Closeable files) {
+        super(OK);
+        this.value = value;
+        this.files = files;
+    }
+
+    ByteBuffer getValue() {
+        return value.duplicate();
+    }
+
+    Closeable files() {
+        return files;
+    }
+
+    @Override
+    public void addHeader(String header) {
+        headers.add(header);
+    }
+
+    @Override
+    public byte[] toBytes(boolean includeBody) {
+        byte[] contentLength = Integer.toString(value.remaining()).getBytes(StandardCharsets.US_ASCII);
+
+        int size = STATUS_LINE.length + CONTENT_LENGTH.length + contentLength.length + CRLF.length * 2;
+        for (String header : headers) {
+            size += header.length() + CRLF.length;
+        }
+
+        if (includeBody) {
+            size += value.remaining();
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocate(size)
+                .put(STATUS_LINE)
+                .put(CONTENT_LENGTH)
+                .put(contentLength)
+                .put(CRLF);
+
+        for (String header : headers) {
+            for (int i = 0; i < header.length(); i++) {
+                bytes.put((byte) header.charAt(i));
+            }
+            bytes.put(CRLF);
+        }
+        bytes.put(CRLF);
+
+        if (includeBody) {
+            bytes.put(value.duplicate());
+        }
+
+        return bytes.array();
+    }
+}
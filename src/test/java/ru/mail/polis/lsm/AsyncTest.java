@@ -0,0 +1,127 @@
+package ru.mail.polis.lsm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.mail.polis.lsm.Utils.generateMap;
+import static ru.mail.polis.lsm.Utils.key;
+import static ru.mail.polis.lsm.Utils.value;
+
+class AsyncTest {
+
+    @Test
+    void upsertAndGet(@TempDir Path data) throws Exception {
+        Map<ByteBuffer, ByteBuffer> map = generateMap(0, 1000);
+
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+            List<CompletableFuture<Void>> upserts = new ArrayList<>(map.size());
+            map.forEach((k, v) -> upserts.add(dao.upsertAsync(Record.of(k, v))));
+            CompletableFuture.allOf(upserts.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+            dao.upsertAsync(Record.tombstone(key(0))).get(10, TimeUnit.SECONDS);
+
+            assertNull(dao.getAsync(key(0)).get(10, TimeUnit.SECONDS));
+            assertEquals(value(500), dao.getAsync(key(500)).get(10, TimeUnit.SECONDS).getValue());
+        }
+    }
+
+    @Test
+    void rangeHonoursDemand(@TempDir Path data) throws Exception {
+        Map<ByteBuffer, ByteBuffer> map = generateMap(0, 100);
+
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+            map.forEach((k, v) -> dao.upsert(Record.of(k, v)));
+
+            CollectingSubscriber subscriber = new CollectingSubscriber(7);
+            dao.rangeAsync(key(10), key(90)).subscribe(subscriber);
+
+            List<Record> records = subscriber.done.get(10, TimeUnit.SECONDS);
+            assertTrue(subscriber.maxOutstanding <= 7);
+
+            Map<ByteBuffer, ByteBuffer> expected = new TreeMap<>(map).subMap(key(10), key(90));
+            Utils.assertEquals(records.iterator(), expected.entrySet());
+        }
+    }
+
+    @Test
+    void invalidRequestFails(@TempDir Path data) throws Exception {
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+            dao.upsert(Record.of(key(1), value(1)));
+
+            CollectingSubscriber subscriber = new CollectingSubscriber(0);
+            dao.rangeAsync(null, null).subscribe(subscriber);
+
+            ExecutionException e = assertThrows(
+                    ExecutionException.class,
+                    () -> subscriber.done.get(10, TimeUnit.SECONDS)
+            );
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    /**
+     * Requests records by batches and checks that no more than requested are pushed.
+     */
+    private static final class CollectingSubscriber implements Flow.Subscriber<Record> {
+        private final int batch;
+        private final List<Record> records = new ArrayList<>();
+        private final CompletableFuture<List<Record>> done = new CompletableFuture<>();
+
+        private Flow.Subscription subscription;
+        private int outstanding;
+        private int maxOutstanding;
+
+        private CollectingSubscriber(int batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            request();
+        }
+
+        @Override
+        public void onNext(Record item) {
+            records.add(item);
+            outstanding--;
+
+            if (outstanding < 0) {
+                done.completeExceptionally(new AssertionError("More records than requested"));
+            } else if (outstanding == 0) {
+                request();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(records);
+        }
+
+        private void request() {
+            outstanding += batch;
+            maxOutstanding = Math.max(maxOutstanding, outstanding);
+            subscription.request(batch);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.mail.polis.lsm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static ru.mail.polis.lsm.Utils.generateMap;
+import static ru.mail.polis.lsm.Utils.key;
+import static ru.mail.polis.lsm.Utils.value;
+
+class CursorTest {
+
+    @Test
+    void memoryAndDisk(@TempDir Path data) throws IOException {
+        Map<ByteBuffer, ByteBuffer> map = generateMap(0, 1000);
+
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+            map.forEach((k, v) -> dao.upsert(Record.of(k, v)));
+        }
+
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+            for (int i = 0; i < 1000; i += 3) {
+                dao.upsert(Record.tombstone(key(i)));
+                map.remove(key(i));
+            }
+            for (int i = 1; i < 1000; i += 3) {
+                dao.upsert(Record.of(key(i), value(i + 1)));
+                map.put(key(i), value(i + 1));
+            }
+
+            TreeMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>(map);
+
+            assertCursorEquals(dao.cursor(null, null), expected.entrySet());
+            assertCursorEquals(
+                    dao.cursor(key(100), key(200)),
+                    expected.subMap(key(100), key(200)).entrySet()
+            );
+        }
+    }
+
+    @Test
+    void emptyRange(@TempDir Path data) throws IOException {
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+            generateMap(0, 10).forEach((k, v) -> dao.upsert(Record.of(k, v)));
+
+            Cursor cursor = dao.cursor(key(5), key(5));
+
+            assertFalse(cursor.next());
+        }
+    }
+
+    private static void assertCursorEquals(Cursor cursor, Collection<Map.Entry<ByteBuffer, ByteBuffer>> expected) {
+        List<String> actual = new ArrayList<>();
+        while (cursor.next()) {
+            actual.add(Utils.toString(cursor.key().duplicate()) + ": " + Utils.toString(cursor.value().duplicate()));
+        }
+
+        List<String> expectedList = new ArrayList<>();
+        for (Map.Entry<ByteBuffer, ByteBuffer> entry : expected) {
+            expectedList.add(
+                    Utils.toString(entry.getKey().duplicate()) + ": " + Utils.toString(entry.getValue().duplicate())
+            );
+        }
+
+        assertEquals(expectedList, actual);
+    }
+}
@@ -10,6 +10,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -220,6 +221,67 @@ class PersistenceTest {
         assertTrue(beforeCompactSize / 50 > size);
     }
 
+    @Test
+    void compactManyTables(@TempDir Path data) throws IOException {
+        Map<ByteBuffer, ByteBuffer> map = new HashMap<>();
+
+        int tables = 10;
+        int step = 500;
+        for (int i = 0; i < tables; i++) {
+            try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+                for (int j = i * step / 2; j < i * step / 2 + step; j++) {
+                    dao.upsert(Record.of(key(j), value(j + i)));
+                    map.put(key(j), value(j + i));
+                }
+                for (int j = 0; j < i * step / 2; j += 7) {
+                    dao.upsert(Record.tombstone(key(j)));
+                    map.remove(key(j));
+                }
+            }
+        }
+
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+            dao.compact();
+            assertDaoEquals(dao, map);
+
+            dao.upsert(Record.of(key(0), value(0)));
+            map.put(key(0), value(0));
+        }
+
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+            assertDaoEquals(dao, map);
+        }
+    }
+
+    @Test
+    void checkpoint(@TempDir Path dir) throws IOException {
+        Path data = Files.createDirectory(dir.resolve("data"));
+        Path backup = Files.createDirectory(dir.resolve("backup"));
+
+        Map<ByteBuffer, ByteBuffer> map = Utils.generateMap(0, 100);
+
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+            map.forEach((k, v) -> dao.upsert(Record.of(k, v)));
+        }
+
+        Path checkpoint = backup.resolve("checkpoint");
+
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(data))) {
+            dao.upsert(Record.of(key(100), value(100)));
+            map.put(key(100), value(100));
+
+            dao.checkpoint(checkpoint);
+
+            dao.upsert(Record.tombstone(key(0)));
+            dao.upsert(Record.of(key(1), value(2)));
+            dao.compact();
+        }
+
+        try (DAO dao = TestDaoWrapper.create(new DAOConfig(checkpoint))) {
+            assertDaoEquals(dao, map);
+        }
+    }
+
     private int getDirSize(Path data) throws IOException {
         int[] size = new int[1];
 
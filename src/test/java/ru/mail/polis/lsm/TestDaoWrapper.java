@@ -1,9 +1,15 @@
 package ru.mail.polis.lsm;
 
 import javax.annotation.Nullable;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
 
 public class TestDaoWrapper implements DAO {
     static final long MAX_HEAP = 128 * 1024 * 1024;
@@ -26,11 +32,87 @@ public class TestDaoWrapper implements DAO {
         return delegate.range(toReadOnly(fromKey), toReadOnly(toKey));
     }
 
+    @Nullable
+    @Override
+    public Record get(ByteBuffer key) {
+        return delegate.get(toReadOnly(key));
+    }
+
+    @Override
+    public Cursor cursor(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return delegate.cursor(toReadOnly(fromKey), toReadOnly(toKey));
+    }
+
+    @Override
+    public Iterator<ByteBuffer> keys(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return delegate.keys(toReadOnly(fromKey), toReadOnly(toKey));
+    }
+
+    @Override
+    public Stream<Record> stream(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return delegate.stream(toReadOnly(fromKey), toReadOnly(toKey));
+    }
+
     @Override
     public void upsert(Record record) {
         delegate.upsert(record);
     }
 
+    @Override
+    public CompletableFuture<Record> getAsync(ByteBuffer key) {
+        return delegate.getAsync(toReadOnly(key));
+    }
+
+    @Override
+    public CompletableFuture<Void> upsertAsync(Record record) {
+        return delegate.upsertAsync(record);
+    }
+
+    @Override
+    public Flow.Publisher<Record> rangeAsync(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return delegate.rangeAsync(toReadOnly(fromKey), toReadOnly(toKey));
+    }
+
+    @Override
+    public long approximateSize(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return delegate.approximateSize(toReadOnly(fromKey), toReadOnly(toKey));
+    }
+
+    @Override
+    public long approximateCount(@Nullable ByteBuffer fromKey, @Nullable ByteBuffer toKey) {
+        return delegate.approximateCount(toReadOnly(fromKey), toReadOnly(toKey));
+    }
+
+    @Override
+    public void compact() throws IOException {
+        delegate.compact();
+    }
+
+    @Override
+    public void ingest(Path dir) throws IOException {
+        delegate.ingest(dir);
+    }
+
+    @Override
+    public void checkpoint(Path target) throws IOException {
+        delegate.checkpoint(target);
+    }
+
+    @Override
+    public List<Path> verify() throws IOException {
+        return delegate.verify();
+    }
+
+    @Override
+    public Closeable retainFiles() {
+        return delegate.retainFiles();
+    }
+
+    @Override
+    public RowCacheStats rowCacheStats() {
+        return delegate.rowCacheStats();
+    }
+
     @Override
     public void closeAndCompact() {
         delegate.closeAndCompact();
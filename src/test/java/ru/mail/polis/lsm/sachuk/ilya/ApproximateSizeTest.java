@@ -0,0 +1,68 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ApproximateSizeTest {
+
+    private static final int COUNT = 1000;
+    private static final int VALUE_SIZE = 100;
+
+    @Test
+    void sizeOfTablesAndMemory(@TempDir Path data) throws IOException {
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.of(key(i), ByteBuffer.allocate(VALUE_SIZE)));
+            }
+        }
+
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            assertEquals(COUNT, dao.approximateCount(null, null));
+            assertEquals(100, dao.approximateCount(key(100), key(200)));
+            assertEquals(COUNT - 900, dao.approximateCount(key(900), null));
+            assertEquals(0, dao.approximateCount(key(COUNT), null));
+            assertEquals(0, dao.approximateSize(wrap("a"), wrap("b")));
+
+            long total = dao.approximateSize(null, null);
+            long part = dao.approximateSize(key(100), key(200));
+            assertTrue(total >= (long) COUNT * VALUE_SIZE);
+            assertEquals(total / 10.0, part, total / 100.0);
+
+            for (int i = COUNT; i < COUNT + 50; i++) {
+                dao.upsert(Record.of(key(i), ByteBuffer.allocate(VALUE_SIZE)));
+            }
+            dao.upsert(Record.tombstone(key(150)));
+
+            assertEquals(COUNT + 51, dao.approximateCount(null, null));
+            assertEquals(101, dao.approximateCount(key(100), key(200)));
+            assertEquals(50, dao.approximateCount(key(COUNT), null));
+            assertTrue(dao.approximateSize(key(COUNT), null) >= 50L * VALUE_SIZE);
+            assertTrue(dao.approximateSize(null, null) > total);
+
+            // inverted and empty ranges have nothing in tables and memory
+            assertEquals(0, dao.approximateCount(key(200), key(100)));
+            assertEquals(0, dao.approximateSize(key(COUNT + 10), key(COUNT)));
+            assertEquals(0, dao.approximateCount(key(COUNT + 10), key(COUNT + 10)));
+            assertFalse(dao.range(key(COUNT + 10), key(COUNT)).hasNext());
+        }
+    }
+
+    private static ByteBuffer key(int i) {
+        return wrap(String.format("key%04d", i));
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,88 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.DAOFactory;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChecksumTest {
+
+    @Test
+    void intactTablesPassVerification(@TempDir Path data) throws IOException {
+        fill(data);
+
+        DAOConfig config = new DAOConfig(data, DAOConfig.DEFAULT_MEMORY_LIMIT, DAOConfig.Verification.RECORDS);
+        try (DAO dao = DAOFactory.create(config)) {
+            assertEquals(List.of(), dao.verify());
+
+            Iterator<Record> range = dao.range(null, null);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(key(i), range.next().getKey());
+            }
+        }
+    }
+
+    @Test
+    void corruptedRecordIsDetected(@TempDir Path data) throws IOException {
+        fill(data);
+        flipLastByte(SSTable.savePath(data, 0));
+
+        try (DAO dao = DAOFactory.create(new DAOConfig(data))) {
+            assertEquals(List.of(SSTable.savePath(data, 0)), dao.verify());
+        }
+
+        DAOConfig config = new DAOConfig(data, DAOConfig.DEFAULT_MEMORY_LIMIT, DAOConfig.Verification.RECORDS);
+        try (DAO dao = DAOFactory.create(config)) {
+            Iterator<Record> range = dao.range(key(99), null);
+            assertThrows(UncheckedIOException.class, range::next);
+
+            assertTrue(dao.cursor(key(0), key(99)).next());
+        }
+    }
+
+    @Test
+    void corruptedIndexIsDetectedOnOpen(@TempDir Path data) throws IOException {
+        fill(data);
+        flipLastByte(SSTable.indexPath(data, 0));
+
+        assertThrows(IOException.class, () -> DAOFactory.create(new DAOConfig(data)));
+
+        DAOConfig config = new DAOConfig(data, DAOConfig.DEFAULT_MEMORY_LIMIT, DAOConfig.Verification.NONE);
+        try (DAO dao = DAOFactory.create(config)) {
+            assertEquals(List.of(SSTable.savePath(data, 0)), dao.verify());
+        }
+    }
+
+    private static void fill(Path data) throws IOException {
+        try (DAO dao = DAOFactory.create(new DAOConfig(data))) {
+            for (int i = 0; i < 100; i++) {
+                dao.upsert(Record.of(key(i), ByteBuffer.wrap(("value" + i).getBytes(StandardCharsets.UTF_8))));
+            }
+        }
+    }
+
+    private static void flipLastByte(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(path, bytes);
+    }
+
+    private static ByteBuffer key(int i) {
+        return ByteBuffer.wrap(String.format("key%03d", i).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,109 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.DAOFactory;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IngestTest {
+
+    @Test
+    void ingestOverridesOlderRecords(@TempDir Path dir) throws IOException {
+        Path data = Files.createDirectory(dir.resolve("data"));
+        Path external = Files.createDirectory(dir.resolve("external"));
+
+        try (DAO dao = DAOFactory.create(new DAOConfig(data))) {
+            dao.upsert(Record.of(wrap("a"), wrap("old")));
+            dao.upsert(Record.of(wrap("b"), wrap("old")));
+            dao.upsert(Record.of(wrap("z"), wrap("memory")));
+
+            try (SSTableWriter writer = SSTableWriter.create(external)) {
+                writer.write(Record.of(wrap("b"), wrap("ingested")));
+                writer.write(Record.tombstone(wrap("c")));
+                writer.write(Record.of(wrap("d"), wrap("ingested")));
+            }
+
+            dao.ingest(external);
+
+            assertEquals(List.of("a=old", "b=ingested", "d=ingested", "z=memory"), toList(dao.range(null, null)));
+        }
+
+        try (DAO dao = DAOFactory.create(new DAOConfig(data))) {
+            assertEquals(List.of("a=old", "b=ingested", "d=ingested", "z=memory"), toList(dao.range(null, null)));
+        }
+    }
+
+    @Test
+    void unsortedRecordsAreRejected(@TempDir Path external) throws IOException {
+        try (SSTableWriter writer = SSTableWriter.create(external)) {
+            writer.write(Record.of(wrap("b"), wrap("value")));
+
+            assertThrows(IllegalArgumentException.class, () -> writer.write(Record.of(wrap("a"), wrap("value"))));
+        }
+    }
+
+    @Test
+    void malformedTableIsRejected(@TempDir Path dir) throws IOException {
+        Path data = Files.createDirectory(dir.resolve("data"));
+        Path external = Files.createDirectory(dir.resolve("external"));
+
+        try (SSTableWriter writer = SSTableWriter.create(external)) {
+            writer.write(Record.of(wrap("a"), wrap("value")));
+        }
+
+        Path savePath = SSTable.savePath(external, 0);
+        byte[] bytes = Files.readAllBytes(savePath);
+        Files.write(savePath, Arrays.copyOf(bytes, bytes.length - 1));
+
+        try (DAO dao = DAOFactory.create(new DAOConfig(data))) {
+            assertThrows(IOException.class, () -> dao.ingest(external));
+        }
+    }
+
+    @Test
+    void corruptedTableIsRejected(@TempDir Path dir) throws IOException {
+        Path data = Files.createDirectory(dir.resolve("data"));
+        Path external = Files.createDirectory(dir.resolve("external"));
+
+        try (SSTableWriter writer = SSTableWriter.create(external)) {
+            writer.write(Record.of(wrap("a"), wrap("value")));
+        }
+
+        Path savePath = SSTable.savePath(external, 0);
+        byte[] bytes = Files.readAllBytes(savePath);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(savePath, bytes);
+
+        try (DAO dao = DAOFactory.create(new DAOConfig(data))) {
+            assertThrows(IOException.class, () -> dao.ingest(external));
+            assertEquals(List.of(), toList(dao.range(null, null)));
+        }
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> toList(Iterator<Record> iterator) {
+        List<String> result = new ArrayList<>();
+        iterator.forEachRemaining(record -> result.add(
+                StandardCharsets.UTF_8.decode(record.getKey()) + "=" + StandardCharsets.UTF_8.decode(record.getValue())
+        ));
+        return result;
+    }
+}
@@ -0,0 +1,57 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class KeysTest {
+
+    private static final int COUNT = 100;
+
+    @Test
+    void keysSkipTombstonesAndValues(@TempDir Path data) throws IOException {
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.of(key(i), ByteBuffer.allocate(4096)));
+            }
+            // Same length as the tombstone marker, must not be taken for one
+            dao.upsert(Record.of(key(COUNT), wrap("NULL_VALUF")));
+        }
+
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            for (int i = 0; i < COUNT; i += 2) {
+                dao.upsert(Record.tombstone(key(i)));
+            }
+            dao.compact();
+            dao.upsert(Record.tombstone(key(1)));
+
+            Iterator<ByteBuffer> keys = dao.keys(key(1), null);
+            for (int i = 3; i < COUNT; i += 2) {
+                assertEquals(key(i), keys.next());
+            }
+            assertEquals(key(COUNT), keys.next());
+            assertFalse(keys.hasNext());
+
+            Iterator<Record> range = dao.range(key(COUNT), null);
+            assertEquals(wrap("NULL_VALUF"), range.next().getValue());
+        }
+    }
+
+    private static ByteBuffer key(int i) {
+        return wrap(String.format("key%04d", i));
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
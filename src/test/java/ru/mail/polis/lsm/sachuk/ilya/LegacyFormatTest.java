@@ -0,0 +1,199 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.Record;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LegacyFormatTest {
+
+    private static final int COUNT = 100;
+
+    @Test
+    void legacyTablesAreReadWithNewOnes(@TempDir Path data) throws IOException {
+        // Tables of the first storage and tables written after the index got statistics
+        for (int version : new int[]{0, IndexFormat.VERSION}) {
+            Path dir = Files.createDirectory(data.resolve("v" + version));
+            writeLegacyTable(dir, version);
+
+            try (DaoImpl dao = new DaoImpl(new DAOConfig(dir))) {
+                assertTrue(dao.verify().isEmpty());
+                assertNull(dao.get(key(0)));
+                assertEquals(value(1), dao.get(key(1)).getValue());
+
+                for (int i = 1; i < COUNT; i += 3) {
+                    dao.upsert(Record.tombstone(key(i)));
+                }
+                // Used to be the tombstone marker, now it is an ordinary value
+                dao.upsert(Record.of(key(2), wrap("NULL_VALUE")));
+            }
+
+            try (DaoImpl dao = new DaoImpl(new DAOConfig(dir))) {
+                assertEquals(2, dao.tableStats().size());
+                assertTrue(dao.verify().isEmpty());
+                assertRange(dao);
+
+                dao.compact();
+                assertRange(dao);
+                assertEquals(0, dao.tableStats().get(0).getTombstoneCount());
+            }
+        }
+    }
+
+    @Test
+    void indexesWithoutStatsAreRead(@TempDir Path data) throws IOException {
+        for (int version = 0; version <= 2; version++) {
+            Path dir = Files.createDirectory(data.resolve("v" + version));
+            writeLegacyTable(dir, version);
+
+            try (DaoImpl dao = new DaoImpl(new DAOConfig(dir))) {
+                assertTrue(dao.verify().isEmpty());
+                assertEquals(COUNT / 2, dao.tableStats().get(0).getTombstoneCount());
+                assertNull(dao.get(key(0)));
+                assertEquals(value(COUNT - 1), dao.get(key(COUNT - 1)).getValue());
+                assertNull(dao.get(wrap("key")));
+                assertNull(dao.get(wrap("kez")));
+
+                dao.compact();
+                assertEquals(COUNT / 2, dao.tableStats().get(0).getRecordCount());
+            }
+        }
+    }
+
+    @Test
+    void newerIndexVersionIsRejected(@TempDir Path data) throws IOException {
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            dao.upsert(Record.of(key(1), value(1)));
+        }
+
+        Path indexPath = SSTable.indexPath(data, 0);
+        byte[] bytes = Files.readAllBytes(indexPath);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - Integer.BYTES * 3, IndexFormat.VERSION + 1);
+        Files.write(indexPath, bytes);
+
+        DAOConfig config = new DAOConfig(data, DAOConfig.DEFAULT_MEMORY_LIMIT, DAOConfig.Verification.NONE);
+        IOException exception = assertThrows(IOException.class, () -> new DaoImpl(config));
+        assertTrue(exception.getMessage().startsWith("Unsupported version"));
+    }
+
+    private static void assertRange(DaoImpl dao) {
+        Iterator<Record> range = dao.range(null, null);
+
+        for (int i = 0; i < COUNT; i++) {
+            if (i % 2 == 0 && i != 2 || i % 3 == 1) {
+                continue;
+            }
+
+            Record record = range.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(i == 2 ? wrap("NULL_VALUE") : value(i), record.getValue());
+        }
+        assertFalse(range.hasNext());
+    }
+
+    /**
+     * Writes table in the encoding used before the record header with the index of the given version
+     * of {@link IndexFormat} without the version itself: even keys are deleted. Version 0 is the layout
+     * of the first storage, {@code [int count][int offset]} per record.
+     */
+    private static void writeLegacyTable(Path dir, int indexVersion) throws IOException {
+        ByteArrayOutputStream save = new ByteArrayOutputStream();
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream saveOutput = new DataOutputStream(save);
+        DataOutputStream indexOutput = new DataOutputStream(index);
+        CRC32C checksum = new CRC32C();
+
+        long keyBytes = 0;
+        long valueBytes = 0;
+
+        if (indexVersion <= 1) {
+            indexOutput.writeInt(COUNT);
+        }
+
+        for (int i = 0; i < COUNT; i++) {
+            byte[] key = bytes(key(i));
+            byte[] value = i % 2 == 0 ? "NULL_VALUE".getBytes(StandardCharsets.UTF_8) : bytes(value(i));
+            int offset = save.size();
+
+            saveOutput.writeInt(key.length);
+            saveOutput.write(key);
+            saveOutput.writeInt(value.length);
+            saveOutput.write(value);
+
+            checksum.reset();
+            checksum.update(save.toByteArray(), offset, save.size() - offset);
+
+            if (indexVersion == 0) {
+                indexOutput.writeInt(offset);
+            } else {
+                indexOutput.writeLong(offset);
+                indexOutput.writeLong(SSTable.keyPrefix(key(i)));
+            }
+            if (indexVersion > 1) {
+                indexOutput.writeInt((int) checksum.getValue());
+            }
+
+            keyBytes += key.length;
+            valueBytes += value.length;
+        }
+
+        if (indexVersion > 2) {
+            byte[] minKey = bytes(key(0));
+            byte[] maxKey = bytes(key(COUNT - 1));
+
+            indexOutput.writeInt(COUNT / 2);
+            indexOutput.writeLong(keyBytes);
+            indexOutput.writeLong(valueBytes);
+            indexOutput.writeLong(0);
+            indexOutput.writeInt(minKey.length);
+            indexOutput.write(minKey);
+            indexOutput.writeInt(maxKey.length);
+            indexOutput.write(maxKey);
+        }
+
+        if (indexVersion > 1) {
+            indexOutput.writeInt(COUNT);
+
+            checksum.reset();
+            checksum.update(index.toByteArray());
+            indexOutput.writeInt((int) checksum.getValue());
+        }
+
+        Files.write(SSTable.savePath(dir, 0), save.toByteArray());
+        Files.write(SSTable.indexPath(dir, 0), index.toByteArray());
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer key(int i) {
+        return wrap(String.format("key%04d", i));
+    }
+
+    private static ByteBuffer value(int i) {
+        return wrap("value" + i);
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,66 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedFileTest {
+
+    private static final int SEGMENT_SIZE = 16;
+
+    @Test
+    void readsAcrossSegments(@TempDir Path dir) throws IOException {
+        byte[] bytes = new byte[SEGMENT_SIZE * 4 + 5];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+
+        Path path = dir.resolve("file");
+        Files.write(path, bytes);
+
+        try (MappedFile file = MappedFile.map(path, SEGMENT_SIZE)) {
+            assertEquals(bytes.length, file.size());
+
+            for (int position = 0; position + Long.BYTES <= bytes.length; position++) {
+                ByteBuffer expected = ByteBuffer.wrap(bytes, position, Long.BYTES);
+
+                assertEquals(expected.getInt(position), file.getInt(position));
+                assertEquals(expected.getLong(position), file.getLong(position));
+            }
+
+            for (int length = 0; length <= SEGMENT_SIZE * 2; length++) {
+                for (int position = 0; position + length <= bytes.length; position++) {
+                    ByteBuffer expected = ByteBuffer.wrap(bytes, position, length);
+
+                    assertEquals(expected, file.slice(position, length));
+                    assertTrue(file.slice(position, length).isReadOnly());
+                }
+            }
+        }
+    }
+
+    @Test
+    void viewIsReusedInsideSegment(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("file");
+        Files.write(path, new byte[SEGMENT_SIZE * 2]);
+
+        try (MappedFile file = MappedFile.map(path, SEGMENT_SIZE)) {
+            MappedFile.View view = file.view();
+
+            ByteBuffer first = view.move(0, 4);
+            ByteBuffer second = view.move(8, 8);
+            ByteBuffer crossing = view.move(12, 8);
+
+            assertTrue(first == second);
+            assertTrue(second != crossing);
+            assertEquals(8, crossing.remaining());
+        }
+    }
+}
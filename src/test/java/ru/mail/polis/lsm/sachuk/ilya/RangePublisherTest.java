@@ -0,0 +1,46 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.lsm.Record;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RangePublisherTest {
+
+    @Test
+    void rejectedReadEndsSubscription() {
+        Executor overloaded = runnable -> {
+            throw new RejectedExecutionException("Overloaded");
+        };
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        new RangePublisher(() -> null, overloaded).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Record item) {
+                throw new AssertionError("No records expected");
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                error.set(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                throw new AssertionError("Completion is not expected");
+            }
+        });
+
+        assertTrue(error.get() instanceof RejectedExecutionException);
+    }
+}
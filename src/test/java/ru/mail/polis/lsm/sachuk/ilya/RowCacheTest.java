@@ -0,0 +1,111 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RowCacheTest {
+
+    @Test
+    void lookupsAreCachedAndInvalidated(@TempDir Path dir) throws IOException {
+        Path data = Files.createDirectory(dir.resolve("data"));
+        Path external = Files.createDirectory(dir.resolve("external"));
+
+        DAOConfig config = new DAOConfig(
+                data,
+                DAOConfig.DEFAULT_MEMORY_LIMIT,
+                DAOConfig.Verification.INDEX,
+                DAOConfig.VALUE_LOG_DISABLED,
+                1024 * 1024
+        );
+
+        try (DaoImpl dao = new DaoImpl(config)) {
+            for (int i = 0; i < 100; i++) {
+                dao.upsert(Record.of(wrap("key" + i), wrap("value" + i)));
+            }
+            dao.compact();
+
+            assertEquals(wrap("value1"), dao.get(wrap("key1")).getValue());
+            assertEquals(wrap("value1"), dao.get(wrap("key1")).getValue());
+            assertNull(dao.get(wrap("absent")));
+            assertNull(dao.get(wrap("absent")));
+            assertEquals(2, dao.rowCacheStats().getHits());
+            assertEquals(2, dao.rowCacheStats().getCount());
+
+            dao.upsert(Record.of(wrap("key1"), wrap("new")));
+            dao.upsert(Record.of(wrap("absent"), wrap("new")));
+            dao.compact();
+
+            assertEquals(wrap("new"), dao.get(wrap("key1")).getValue());
+            assertEquals(wrap("new"), dao.get(wrap("absent")).getValue());
+
+            dao.upsert(Record.tombstone(wrap("key1")));
+            assertNull(dao.get(wrap("key1")));
+
+            try (SSTableWriter writer = SSTableWriter.create(external)) {
+                writer.write(Record.of(wrap("key2"), wrap("ingested")));
+            }
+            assertNotNull(dao.get(wrap("key2")));
+            dao.ingest(external);
+
+            assertEquals(wrap("ingested"), dao.get(wrap("key2")).getValue());
+        }
+    }
+
+    @Test
+    void rowCacheIsTakenFromMemoryLimit(@TempDir Path data) {
+        DAOConfig config = new DAOConfig(
+                data,
+                DAOConfig.DEFAULT_MEMORY_LIMIT,
+                DAOConfig.Verification.INDEX,
+                DAOConfig.VALUE_LOG_DISABLED,
+                DAOConfig.DEFAULT_MEMORY_LIMIT
+        );
+
+        assertThrows(IllegalArgumentException.class, () -> new DaoImpl(config));
+    }
+
+    @Test
+    void scanDoesNotEvictHotKeys() {
+        RowCache cache = new RowCache(64 * 4096);
+        ByteBuffer hot = wrap("hot");
+
+        cache.put(hot, Record.of(hot, wrap("value")), cache.version(hot));
+        assertNotNull(cache.get(hot));
+
+        for (int i = 0; i < 100_000; i++) {
+            ByteBuffer key = wrap("cold" + i);
+            cache.put(key, Record.of(key, wrap("value")), cache.version(key));
+        }
+
+        assertNotNull(cache.get(hot));
+    }
+
+    @Test
+    void staleLookupIsNotCached() {
+        RowCache cache = new RowCache(1024 * 1024);
+        ByteBuffer key = wrap("key");
+
+        long version = cache.version(key);
+        cache.invalidate(key);
+        cache.put(key, Record.of(key, wrap("stale")), version);
+
+        assertNull(cache.get(key));
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,91 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class StreamTest {
+
+    private static final int COUNT = 10_000;
+
+    @Test
+    void parallelStreamReadsSameRecordsAsRange(@TempDir Path data) throws IOException {
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.of(key(i), value(i)));
+            }
+        }
+
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            for (int i = 0; i < COUNT; i += 3) {
+                dao.upsert(Record.tombstone(key(i)));
+            }
+        }
+
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            for (int i = 1; i < COUNT; i += 7) {
+                dao.upsert(Record.of(key(i), value(-i)));
+            }
+
+            assertStreamEquals(dao, null, null);
+            assertStreamEquals(dao, key(1234), key(8765));
+            assertStreamEquals(dao, key(5000), key(5001));
+            assertStreamEquals(dao, key(COUNT), null);
+
+            Spliterator<Record> spliterator = dao.stream(null, null).spliterator();
+            assertNotNull(spliterator.trySplit());
+
+            long sum = dao.stream(null, null)
+                    .parallel()
+                    .mapToLong(record -> record.getValue().remaining())
+                    .sum();
+            long expectedSum = 0;
+            for (Iterator<Record> range = dao.range(null, null); range.hasNext(); ) {
+                expectedSum += range.next().getValue().remaining();
+            }
+            assertEquals(expectedSum, sum);
+        }
+    }
+
+    private static void assertStreamEquals(DaoImpl dao, ByteBuffer fromKey, ByteBuffer toKey) {
+        List<String> expected = new ArrayList<>();
+        dao.range(fromKey, toKey).forEachRemaining(record -> expected.add(toString(record)));
+
+        List<String> actual = dao.stream(fromKey, toKey)
+                .parallel()
+                .map(StreamTest::toString)
+                .collect(Collectors.toList());
+
+        assertEquals(expected, actual);
+    }
+
+    private static String toString(Record record) {
+        return StandardCharsets.UTF_8.decode(record.getKey()) + "=" + StandardCharsets.UTF_8.decode(record.getValue());
+    }
+
+    private static ByteBuffer key(int i) {
+        return wrap(String.format("key%05d", i));
+    }
+
+    private static ByteBuffer value(int i) {
+        return wrap("value" + i);
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
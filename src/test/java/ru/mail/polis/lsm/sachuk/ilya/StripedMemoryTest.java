@@ -0,0 +1,103 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripedMemoryTest {
+
+    private static final int THREADS = 16;
+    private static final int KEYS_PER_THREAD = 256;
+    private static final int VALUE_SIZE = 16 * 1024;
+
+    @Test
+    void concurrentWritersFlushStripes(@TempDir Path data) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            List<Future<?>> futures = new ArrayList<>(THREADS);
+
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                        ByteBuffer key = key(thread * KEYS_PER_THREAD + i);
+                        dao.upsert(Record.of(key, value(thread * KEYS_PER_THREAD + i)));
+                        assertNotNull(dao.get(key));
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            assertTrue(dao.tableStats().size() > 1);
+            assertRange(dao);
+        } finally {
+            executor.shutdown();
+        }
+
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            assertRange(dao);
+        }
+    }
+
+    @Test
+    void iteratorSurvivesFlush(@TempDir Path data) throws IOException {
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            for (int i = 0; i < 100; i++) {
+                dao.upsert(Record.of(key(i), value(i)));
+            }
+
+            Iterator<Record> range = dao.range(null, null);
+            dao.compact();
+
+            for (int i = 0; i < 100; i++) {
+                assertEquals(key(i), range.next().getKey());
+            }
+            assertFalse(range.hasNext());
+        }
+    }
+
+    private static void assertRange(DaoImpl dao) {
+        Iterator<Record> range = dao.range(null, null);
+
+        for (int i = 0; i < THREADS * KEYS_PER_THREAD; i++) {
+            Record record = range.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i), record.getValue());
+        }
+        assertFalse(range.hasNext());
+    }
+
+    private static ByteBuffer key(int i) {
+        return ByteBuffer.wrap(String.format("key%06d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(int i) {
+        ByteBuffer value = ByteBuffer.allocate(VALUE_SIZE);
+        while (value.hasRemaining()) {
+            value.put((byte) i);
+        }
+        return value.flip();
+    }
+}
@@ -0,0 +1,126 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.Cursor;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.Record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TableSetTest {
+
+    private static final int COUNT = 100;
+
+    @Test
+    void replacedTableIsDeletedAfterItsReaders(@TempDir Path data) throws IOException {
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            fill(dao, "old");
+            dao.compact();
+            Path replaced = SSTable.savePath(data, dao.tableStats().get(0).getFileNumber());
+
+            Iterator<Record> range = dao.range(null, null);
+            Cursor cursor = dao.cursor(null, null);
+            assertEquals(key(0), range.next().getKey());
+
+            dao.upsert(Record.tombstone(key(0)));
+            fill(dao, "new");
+            dao.compact();
+
+            assertTrue(Files.exists(replaced));
+
+            for (int i = 1; i < COUNT; i++) {
+                Record record = range.next();
+                assertEquals(key(i), record.getKey());
+                assertEquals(value("old", i), record.getValue());
+            }
+            assertFalse(range.hasNext());
+            assertTrue(Files.exists(replaced));
+
+            int count = 0;
+            while (cursor.next()) {
+                assertEquals(value("old", count), cursor.value());
+                count++;
+            }
+            assertEquals(COUNT, count);
+            assertFalse(Files.exists(replaced));
+
+            assertEquals(value("new", 1), dao.get(key(1)).getValue());
+        }
+    }
+
+    @Test
+    void replacedTablesAreDeletedOnClose(@TempDir Path data) throws IOException {
+        Path replaced;
+        Iterator<Record> range;
+
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            fill(dao, "old");
+            dao.compact();
+            replaced = SSTable.savePath(data, dao.tableStats().get(0).getFileNumber());
+
+            range = dao.range(null, null);
+            assertTrue(range.hasNext());
+
+            fill(dao, "new");
+            dao.compact();
+            assertTrue(Files.exists(replaced));
+        }
+
+        assertFalse(Files.exists(replaced));
+
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            assertEquals(1, dao.tableStats().size());
+            assertEquals(value("new", 0), dao.get(key(0)).getValue());
+        }
+    }
+
+    @Test
+    void retainedFilesAreKeptUntilReleased(@TempDir Path data) throws IOException {
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            fill(dao, "old");
+            dao.compact();
+            Path replaced = SSTable.savePath(data, dao.tableStats().get(0).getFileNumber());
+
+            Closeable files = dao.retainFiles();
+            ByteBuffer value = dao.get(key(1)).getValue();
+
+            fill(dao, "new");
+            dao.compact();
+
+            assertTrue(Files.exists(replaced));
+            assertEquals(value("old", 1), value);
+
+            files.close();
+            assertFalse(Files.exists(replaced));
+        }
+    }
+
+    private static void fill(DaoImpl dao, String prefix) {
+        for (int i = 0; i < COUNT; i++) {
+            dao.upsert(Record.of(key(i), value(prefix, i)));
+        }
+    }
+
+    private static ByteBuffer key(int i) {
+        return wrap(String.format("key%03d", i));
+    }
+
+    private static ByteBuffer value(String prefix, int i) {
+        return wrap(prefix + i);
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,81 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TableStatsTest {
+
+    private static final int BATCH = 100;
+
+    @Test
+    void statsArePersisted(@TempDir Path data) throws IOException {
+        for (int batch = 0; batch < 3; batch++) {
+            try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+                for (int i = 0; i < BATCH; i++) {
+                    int key = batch * BATCH + i;
+                    dao.upsert(i % 4 == 0 ? Record.tombstone(key(key)) : Record.of(key(key), wrap("v" + key)));
+                }
+            }
+        }
+
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            List<TableStats> stats = dao.tableStats();
+
+            assertEquals(3, stats.size());
+            for (TableStats tableStats : stats) {
+                assertEquals(BATCH, tableStats.getRecordCount());
+                assertEquals(BATCH / 4, tableStats.getTombstoneCount());
+                assertEquals(0.25, tableStats.getTombstoneRatio());
+                assertEquals(BATCH * 7L, tableStats.getKeyBytes());
+                assertEquals(0, tableStats.getBlobBytes());
+            }
+        }
+    }
+
+    @Test
+    void disjointTablesAreRead(@TempDir Path data) throws IOException {
+        for (int batch = 0; batch < 3; batch++) {
+            try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+                for (int i = 0; i < BATCH; i++) {
+                    dao.upsert(Record.of(key(batch * BATCH + i), wrap("v")));
+                }
+            }
+        }
+
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            Iterator<Record> range = dao.range(key(BATCH - 1), key(2 * BATCH + 1));
+            for (int i = BATCH - 1; i < 2 * BATCH + 1; i++) {
+                assertEquals(key(i), range.next().getKey());
+            }
+            assertFalse(range.hasNext());
+
+            assertFalse(dao.range(key(3 * BATCH), null).hasNext());
+            assertFalse(dao.range(null, key(0)).hasNext());
+
+            assertEquals(wrap("v"), dao.get(key(2 * BATCH)).getValue());
+            assertNull(dao.get(key(3 * BATCH)));
+            assertNull(dao.get(wrap("a")));
+        }
+    }
+
+    private static ByteBuffer key(int i) {
+        return wrap(String.format("key%04d", i));
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
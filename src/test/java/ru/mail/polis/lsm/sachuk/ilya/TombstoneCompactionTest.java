@@ -0,0 +1,95 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TombstoneCompactionTest {
+
+    private static final int KEY_SIZE = 16 * 1024;
+    private static final int COUNT = 2048;
+
+    @Test
+    void deletedRangeIsCompactedInBackground(@TempDir Path data) throws IOException, InterruptedException {
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.of(key(i), wrap("v" + i)));
+            }
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.tombstone(key(i)));
+            }
+            dao.upsert(Record.of(wrap("alive"), wrap("value")));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (tombstones(dao) > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(0, tombstones(dao));
+            assertNull(dao.get(key(0)));
+            assertEquals(wrap("value"), dao.get(wrap("alive")).getValue());
+
+            Iterator<Record> range = dao.range(null, null);
+            assertTrue(range.hasNext());
+            assertEquals(wrap("alive"), range.next().getKey());
+            assertFalse(range.hasNext());
+        }
+    }
+
+    @Test
+    void tablesOutsideDeletedRangeAreNotRewritten(@TempDir Path data) throws IOException, InterruptedException {
+        try (DaoImpl dao = new DaoImpl(new DAOConfig(data))) {
+            dao.upsert(Record.of(wrap("z1"), wrap("first")));
+            dao.upsert(Record.of(wrap("z2"), wrap("second")));
+            dao.compact();
+            int untouched = dao.tableStats().get(0).getFileNumber();
+
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.of(key(i), wrap("v" + i)));
+            }
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.tombstone(key(i)));
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (tombstones(dao) > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(0, tombstones(dao));
+            assertTrue(dao.tableStats().stream().anyMatch(stats -> stats.getFileNumber() == untouched));
+            assertNull(dao.get(key(0)));
+            assertEquals(wrap("second"), dao.get(wrap("z2")).getValue());
+        }
+    }
+
+    private static long tombstones(DaoImpl dao) {
+        return dao.tableStats().stream().mapToLong(TableStats::getTombstoneCount).sum();
+    }
+
+    private static ByteBuffer key(int i) {
+        byte[] key = new byte[KEY_SIZE];
+        Arrays.fill(key, (byte) 'k');
+        byte[] suffix = String.format("%06d", i).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(suffix, 0, key, KEY_SIZE - suffix.length, suffix.length);
+        return ByteBuffer.wrap(key);
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,150 @@
+package ru.mail.polis.lsm.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.lsm.Cursor;
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.DAOFactory;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ValueLogTest {
+
+    private static final int THRESHOLD = 1024;
+    private static final int COUNT = 50;
+
+    @Test
+    void largeValuesAreKeptInValueLog(@TempDir Path data) throws IOException {
+        try (DAO dao = create(data)) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.of(key(i), value(i, THRESHOLD * 4)));
+                dao.upsert(Record.of(key(COUNT + i), value(i, 10)));
+            }
+        }
+
+        assertEquals(List.of("BLOB0.blob"), blobFiles(data));
+        assertTrue(Files.size(SSTable.savePath(data, 0)) < THRESHOLD * COUNT);
+
+        try (DAO dao = create(data)) {
+            assertValues(dao, 0, THRESHOLD * 4);
+            assertValues(dao, COUNT, 10);
+
+            Cursor cursor = dao.cursor(key(0), key(1));
+            assertTrue(cursor.next());
+            assertEquals(value(0, THRESHOLD * 4), cursor.value());
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    void compactionKeepsLiveBlobFiles(@TempDir Path data) throws IOException {
+        try (DAO dao = create(data)) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.of(key(i), value(i, THRESHOLD * 4)));
+            }
+        }
+
+        try (DAO dao = create(data)) {
+            dao.upsert(Record.of(key(COUNT), value(COUNT, 10)));
+            dao.compact();
+
+            assertEquals(List.of("BLOB0.blob"), blobFiles(data));
+            assertValues(dao, 0, THRESHOLD * 4);
+        }
+    }
+
+    @Test
+    void compactionCollectsGarbage(@TempDir Path data) throws IOException {
+        try (DAO dao = create(data)) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.of(key(i), value(i, THRESHOLD * 4)));
+            }
+        }
+
+        try (DAO dao = create(data)) {
+            for (int i = 1; i < COUNT; i++) {
+                dao.upsert(Record.tombstone(key(i)));
+            }
+            dao.compact();
+
+            List<String> blobFiles = blobFiles(data);
+            assertEquals(1, blobFiles.size());
+            assertFalse(blobFiles.contains("BLOB0.blob"));
+            assertEquals(THRESHOLD * 4, Files.size(data.resolve(blobFiles.get(0))));
+        }
+
+        try (DAO dao = create(data)) {
+            Iterator<Record> range = dao.range(null, null);
+            assertEquals(value(0, THRESHOLD * 4), range.next().getValue());
+            assertFalse(range.hasNext());
+        }
+    }
+
+    @Test
+    void checkpointLinksValueLog(@TempDir Path dir) throws IOException {
+        Path data = Files.createDirectory(dir.resolve("data"));
+        Path backup = Files.createDirectory(dir.resolve("backup"));
+
+        try (DAO dao = create(data)) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(Record.of(key(i), value(i, THRESHOLD * 4)));
+            }
+            dao.checkpoint(backup.resolve("checkpoint"));
+        }
+
+        try (DAO dao = create(backup.resolve("checkpoint"))) {
+            assertValues(dao, 0, THRESHOLD * 4);
+        }
+    }
+
+    private static DAO create(Path data) throws IOException {
+        return DAOFactory.create(
+                new DAOConfig(data, DAOConfig.DEFAULT_MEMORY_LIMIT, DAOConfig.Verification.RECORDS, THRESHOLD)
+        );
+    }
+
+    private static void assertValues(DAO dao, int firstKey, int size) {
+        Iterator<Record> range = dao.range(key(firstKey), key(firstKey + COUNT));
+
+        for (int i = 0; i < COUNT; i++) {
+            Record record = range.next();
+            assertEquals(key(firstKey + i), record.getKey());
+            assertEquals(value(i, size), record.getValue());
+        }
+        assertFalse(range.hasNext());
+    }
+
+    private static List<String> blobFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(".blob"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static ByteBuffer key(int i) {
+        return ByteBuffer.wrap(String.format("key%04d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(int i, int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) i);
+        return ByteBuffer.wrap(bytes);
+    }
+}
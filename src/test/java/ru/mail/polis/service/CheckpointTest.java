@@ -0,0 +1,90 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.DAOFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checkpoints requested through {@code /v0/admin/checkpoint} stay in the checkpoint directory of the service.
+ */
+class CheckpointTest extends TestBase {
+
+    @TempDir
+    Path dir;
+
+    private DAO dao;
+    private Service service;
+    private int port;
+
+    @AfterEach
+    void stop() throws IOException {
+        service.stop();
+        dao.close();
+    }
+
+    @Test
+    void checkpointInDirectory() throws IOException {
+        Path checkpoints = Files.createDirectory(dir.resolve("checkpoints"));
+        start(checkpoints);
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            byte[] value = "value".getBytes(StandardCharsets.UTF_8);
+            assertEquals(201, connection.request("PUT", "/v0/entity?id=key", value).status);
+
+            assertEquals(201, connection.request("POST", "/v0/admin/checkpoint?path=daily/1", null).status);
+            assertEquals(409, connection.request("POST", "/v0/admin/checkpoint?path=daily/1", null).status);
+        }
+
+        try (DAO checkpoint = DAOFactory.create(new DAOConfig(checkpoints.resolve("daily").resolve("1")))) {
+            ByteBuffer key = ByteBuffer.wrap("key".getBytes(StandardCharsets.UTF_8));
+            assertEquals(ByteBuffer.wrap("value".getBytes(StandardCharsets.UTF_8)), checkpoint.get(key).getValue());
+        }
+    }
+
+    @Test
+    void pathsOutsideDirectory() throws IOException {
+        Path checkpoints = Files.createDirectory(dir.resolve("checkpoints"));
+        start(checkpoints);
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            for (String path : new String[]{dir.resolve("outside").toString(), "../outside", "a/../../outside", "."}) {
+                assertEquals(400, connection.request("POST", "/v0/admin/checkpoint?path=" + path, null).status);
+            }
+        }
+
+        assertFalse(Files.exists(dir.resolve("outside")));
+    }
+
+    @Test
+    void checkpointsDisabled() throws IOException {
+        start(null);
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            String path = dir.resolve("checkpoint").toString();
+            assertEquals(403, connection.request("POST", "/v0/admin/checkpoint?path=" + path, null).status);
+        }
+
+        assertFalse(Files.exists(dir.resolve("checkpoint")));
+    }
+
+    private void start(@Nullable Path checkpoints) throws IOException {
+        port = randomPort();
+        dao = DAOFactory.create(new DAOConfig(Files.createDirectory(dir.resolve("data"))));
+        service = ServiceFactory.create(port, dao, checkpoints);
+        service.start();
+    }
+}
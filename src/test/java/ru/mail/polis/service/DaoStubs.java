@@ -0,0 +1,191 @@
+package ru.mail.polis.service;
+
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.Record;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Storages that delegate to a real one except for a single operation, to make the service meet
+ * failures and slow reads on purpose.
+ */
+final class DaoStubs {
+
+    private static final long WAIT_SECONDS = 30;
+
+    private DaoStubs() {
+        // Not supposed to be instantiated
+    }
+
+    /**
+     * Replaces async ranges of the storage.
+     *
+     * @param dao    is storage.
+     * @param ranges makes publisher for every requested range.
+     * @return storage with the replaced ranges.
+     */
+    static DAO withRanges(DAO dao, Supplier<Flow.Publisher<Record>> ranges) {
+        return replace(dao, Map.of("rangeAsync", args -> ranges.get()));
+    }
+
+    /**
+     * Makes lookups wait until they are let through.
+     *
+     * @param dao     is storage.
+     * @param entered is counted down when a lookup starts.
+     * @param release lets waiting lookups go on.
+     * @return storage with the waiting lookups.
+     */
+    static DAO withBlockedGets(DAO dao, CountDownLatch entered, CountDownLatch release) {
+        return replace(dao, Map.of("get", args -> {
+            entered.countDown();
+            try {
+                if (!release.await(WAIT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Lookup was not released");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            return dao.get((ByteBuffer) args[0]);
+        }));
+    }
+
+    /**
+     * Closes the storage right after the first lookup, as a shutdown would while the found value is sent.
+     * Closing the returned storage after that does nothing.
+     *
+     * @param dao is storage.
+     * @return storage closed by the lookup.
+     */
+    static DAO withClosingGets(DAO dao) {
+        AtomicBoolean closed = new AtomicBoolean();
+
+        return replace(dao, Map.of(
+                "get", args -> {
+                    Record record = dao.get((ByteBuffer) args[0]);
+                    closeOnce(dao, closed);
+                    return record;
+                },
+                "close", args -> {
+                    closeOnce(dao, closed);
+                    return null;
+                }
+        ));
+    }
+
+    /**
+     * Lets the storage be closed by a test before the service is stopped.
+     *
+     * @param dao is storage.
+     * @return storage that is closed only by the first call of close.
+     */
+    static DAO closedOnce(DAO dao) {
+        AtomicBoolean closed = new AtomicBoolean();
+
+        return replace(dao, Map.of("close", args -> {
+            closeOnce(dao, closed);
+            return null;
+        }));
+    }
+
+    private static void closeOnce(DAO dao, AtomicBoolean closed) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            dao.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static DAO replace(DAO dao, Map<String, Function<Object[], Object>> replacements) {
+        return (DAO) Proxy.newProxyInstance(
+                DAO.class.getClassLoader(),
+                new Class<?>[]{DAO.class},
+                (proxy, method, args) -> {
+                    Function<Object[], Object> replacement = replacements.get(method.getName());
+                    if (replacement != null) {
+                        return replacement.apply(args);
+                    }
+
+                    try {
+                        return method.invoke(dao, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Publishes the records as far as they are requested, then fails with the error or completes.
+     * Records are published on the thread that requests them.
+     */
+    static final class RecordsPublisher implements Flow.Publisher<Record> {
+        private final List<Record> records;
+        @Nullable
+        private final RuntimeException error;
+
+        RecordsPublisher(List<Record> records, @Nullable RuntimeException error) {
+            this.records = records;
+            this.error = error;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Record> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                private int next;
+                private long demand;
+                private boolean emitting;
+                private volatile boolean done;
+
+                @Override
+                public synchronized void request(long n) {
+                    demand += n;
+
+                    // Requests made from onNext only add demand, the running loop publishes it
+                    if (emitting) {
+                        return;
+                    }
+
+                    emitting = true;
+                    while (!done && demand > 0 && next < records.size()) {
+                        demand--;
+                        subscriber.onNext(records.get(next++));
+                    }
+
+                    if (!done && next == records.size()) {
+                        done = true;
+                        if (error == null) {
+                            subscriber.onComplete();
+                        } else {
+                            subscriber.onError(error);
+                        }
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel() {
+                    done = true;
+                }
+            });
+        }
+    }
+}
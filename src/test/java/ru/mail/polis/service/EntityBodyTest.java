@@ -0,0 +1,60 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.DAOFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Requests that must carry a body are rejected without one.
+ */
+class EntityBodyTest extends TestBase {
+
+    @TempDir
+    Path data;
+
+    private DAO dao;
+    private Service service;
+    private int port;
+
+    @BeforeEach
+    void start() throws IOException {
+        port = randomPort();
+        dao = DAOFactory.create(new DAOConfig(data));
+        service = ServiceFactory.create(port, dao);
+        service.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        service.stop();
+        dao.close();
+    }
+
+    @Test
+    void putWithoutBody() throws IOException {
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            assertEquals(400, connection.request("PUT", "/v0/entity?id=key", null).status);
+            assertEquals(404, connection.request("GET", "/v0/entity?id=key", null).status);
+
+            assertEquals(201, connection.request("PUT", "/v0/entity?id=key", new byte[0]).status);
+            assertEquals(200, connection.request("GET", "/v0/entity?id=key", null).status);
+        }
+    }
+
+    @Test
+    void batchPutWithoutBody() throws IOException {
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            assertEquals(400, connection.request("POST", "/v0/entities/put", null).status);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.DAOFactory;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Values that don't fit the socket buffer are written straight from the storage files.
+ */
+class LargeValueTest extends TestBase {
+
+    private static final int VALUE_SIZE = 1024 * 1024;
+
+    /**
+     * More than the send buffer of a socket may grow to, so most of the value waits in the queue of the session.
+     */
+    private static final int QUEUED_VALUE_SIZE = 16 * 1024 * 1024;
+    private static final int RECEIVE_BUFFER = 4096;
+    private static final byte[] KEY = "large".getBytes(StandardCharsets.UTF_8);
+    private static final String ENTITY = "/v0/entity?id=large";
+
+    @TempDir
+    Path data;
+
+    private DAO dao;
+    private Service service;
+    private int port;
+
+    @AfterEach
+    void stop() throws IOException {
+        service.stop();
+        dao.close();
+    }
+
+    @Test
+    void valueFromTable() throws IOException, InterruptedException {
+        start(new DAOConfig(data));
+        checkSlowRead();
+    }
+
+    @Test
+    void valueFromValueLog() throws IOException, InterruptedException {
+        start(new DAOConfig(data, DAOConfig.DEFAULT_MEMORY_LIMIT, DAOConfig.Verification.INDEX, 64 * 1024));
+        checkSlowRead();
+    }
+
+    @Test
+    void storageClosedWhileValueIsSent() throws IOException {
+        DAO storage = DAOFactory.create(new DAOConfig(data));
+        byte[] value = value((byte) 1, VALUE_SIZE);
+        storage.upsert(Record.of(ByteBuffer.wrap(KEY), ByteBuffer.wrap(value)));
+        storage.compact();
+
+        // the value is a view of the table file unmapped by the close unless the response holds it
+        start(DaoStubs.withClosingGets(storage));
+
+        try (RawHttpConnection connection = new RawHttpConnection(port, RECEIVE_BUFFER)) {
+            RawHttpConnection.RawResponse response = connection.request("GET", ENTITY, null);
+            assertEquals(200, response.status);
+            assertArrayEquals(value, response.body);
+        }
+    }
+
+    @Test
+    void storageClosedWhileValueIsQueued() throws IOException, InterruptedException {
+        start(DaoStubs.closedOnce(DAOFactory.create(new DAOConfig(data))));
+        byte[] value = value((byte) 1, QUEUED_VALUE_SIZE);
+        upsert(value);
+        dao.compact();
+
+        try (RawHttpConnection connection = new RawHttpConnection(port, RECEIVE_BUFFER)) {
+            connection.send("GET", ENTITY, null);
+
+            // most of the value waits in the queue of the session while the storage is closed
+            Thread.sleep(200);
+            dao.close();
+
+            RawHttpConnection.RawResponse response = connection.read();
+            assertEquals(200, response.status);
+            assertArrayEquals(value, response.body);
+        }
+    }
+
+    private void checkSlowRead() throws IOException, InterruptedException {
+        byte[] value = value((byte) 1, VALUE_SIZE);
+
+        try (RawHttpConnection connection = new RawHttpConnection(port, RECEIVE_BUFFER)) {
+            upsert(value);
+            dao.compact();
+
+            connection.send("GET", ENTITY, null);
+
+            // the socket fills up and the rest of the value waits for the client
+            Thread.sleep(200);
+
+            RawHttpConnection.RawResponse response = connection.read();
+            assertEquals(200, response.status);
+            assertArrayEquals(value, response.body);
+
+            // the connection is ready for the next request
+            assertEquals(200, connection.request("GET", "/v0/status", null).status);
+        }
+    }
+
+    /**
+     * Stores the value bypassing the service, its requests can't carry a body of this size.
+     */
+    private void upsert(byte[] value) {
+        dao.upsert(Record.of(ByteBuffer.wrap(KEY), ByteBuffer.wrap(value)));
+    }
+
+    private void start(DAOConfig config) throws IOException {
+        start(DAOFactory.create(config));
+    }
+
+    private void start(DAO storage) throws IOException {
+        port = randomPort();
+        dao = storage;
+        service = ServiceFactory.create(port, dao);
+        service.start();
+    }
+
+    private static byte[] value(byte seed, int size) {
+        byte[] value = new byte[size];
+        Arrays.fill(value, seed);
+        for (int i = 0; i < value.length; i += 4096) {
+            value[i] = (byte) (i / 4096);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,150 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.DAOFactory;
+import ru.mail.polis.lsm.Record;
+import ru.mail.polis.service.sachuk.ilya.ServiceImpl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Requests beyond what the service or the storage can take are answered with 503 at once.
+ */
+class OverloadTest extends TestBase {
+
+    @TempDir
+    Path data;
+
+    private DAO dao;
+    private Service service;
+    private int port;
+
+    @AfterEach
+    void stop() throws IOException {
+        service.stop();
+        dao.close();
+    }
+
+    @Test
+    void fullWorkerPool() throws IOException, InterruptedException {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        start(DaoStubs.withBlockedGets(DAOFactory.create(new DAOConfig(data)), entered, release));
+
+        try (RawHttpConnection running = new RawHttpConnection(port);
+             RawHttpConnection queued = new RawHttpConnection(port);
+             RawHttpConnection rejected = new RawHttpConnection(port);
+             RawHttpConnection admin = new RawHttpConnection(port)) {
+            running.send("GET", "/v0/entity?id=running", null);
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+            queued.send("GET", "/v0/entity?id=queued", null);
+            awaitWorkers(admin, "queued=1");
+
+            RawHttpConnection.RawResponse response = rejected.request("GET", "/v0/entity?id=rejected", null);
+            assertEquals(503, response.status);
+            assertEquals("1", response.header("Retry-After"));
+
+            release.countDown();
+            assertEquals(404, running.read().status);
+            assertEquals(404, queued.read().status);
+            assertEquals(404, rejected.request("GET", "/v0/entity?id=rejected", null).status);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void storageRejectsRange() throws IOException {
+        start(DaoStubs.withRanges(
+                DAOFactory.create(new DAOConfig(data)),
+                () -> new DaoStubs.RecordsPublisher(List.of(), new RejectedExecutionException("Overloaded"))
+        ));
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            RawHttpConnection.RawResponse page = connection.request("GET", "/v0/entities", null);
+            assertEquals(503, page.status);
+            assertEquals("1", page.header("Retry-After"));
+
+            RawHttpConnection.RawResponse stream = connection.request("GET", "/v0/entities/stream", null);
+            assertEquals(503, stream.status);
+            assertEquals("1", stream.header("Retry-After"));
+        }
+    }
+
+    @Test
+    void finishedRangesLeaveLimiter() throws IOException, InterruptedException {
+        start(DAOFactory.create(new DAOConfig(data)));
+        byte[] value = new byte[2048];
+        for (int i = 0; i < 2000; i++) {
+            dao.upsert(Record.of(
+                    ByteBuffer.wrap(String.format("key%05d", i).getBytes(StandardCharsets.UTF_8)),
+                    ByteBuffer.wrap(value)
+            ));
+        }
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            assertEquals(200, connection.request("GET", "/v0/entities?limit=10", null).status);
+            assertTrue(connection.request("GET", "/v0/entities/stream", null).complete);
+        }
+
+        // the client leaves while the stream waits for its socket
+        try (RawHttpConnection connection = new RawHttpConnection(port, 4096)) {
+            connection.send("GET", "/v0/entities/stream", null);
+            Thread.sleep(200);
+        }
+
+        try (RawHttpConnection admin = new RawHttpConnection(port)) {
+            awaitWorkers(admin, "inFlight=0");
+        }
+    }
+
+    /**
+     * Starts service with one worker and room for one waiting request.
+     */
+    private void start(DAO storage) throws IOException {
+        port = randomPort();
+        dao = storage;
+        service = new ServiceImpl(port, dao, 1, 1, 1, null);
+        service.start();
+    }
+
+    /**
+     * Polls load of the service until it shows the counter.
+     *
+     * @param admin   is connection for the polls.
+     * @param counter is counter with its value, like {@code queued=1}.
+     */
+    private static void awaitWorkers(RawHttpConnection admin, String counter)
+            throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (System.nanoTime() < deadline) {
+            String workers = new String(
+                    admin.request("GET", "/v0/admin/workers", null).body,
+                    StandardCharsets.US_ASCII
+            );
+            if (workers.contains(" " + counter + " ")) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+
+        throw new AssertionError("Service load has no " + counter);
+    }
+}
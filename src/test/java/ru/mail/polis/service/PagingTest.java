@@ -0,0 +1,155 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.DAOFactory;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Pages of {@code /v0/entities} chained by continuation tokens.
+ */
+class PagingTest extends TestBase {
+
+    private static final String CONTINUATION = "X-Continuation-Token";
+    private static final int COUNT = 25;
+
+    @TempDir
+    Path data;
+
+    private DAO dao;
+    private Service service;
+    private int port;
+
+    @BeforeEach
+    void start() throws IOException {
+        port = randomPort();
+        dao = DAOFactory.create(new DAOConfig(data));
+        service = ServiceFactory.create(port, dao);
+        service.start();
+
+        for (int i = 0; i < COUNT; i++) {
+            dao.upsert(Record.of(wrap(key(i)), wrap("value" + i)));
+        }
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        service.stop();
+        dao.close();
+    }
+
+    @Test
+    void pagesAreChainedByTokens() throws IOException {
+        List<String> records = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            String token = null;
+
+            do {
+                String uri = "/v0/entities?limit=10" + (token == null ? "" : "&continuation=" + token);
+                RawHttpConnection.RawResponse page = connection.request("GET", uri, null);
+                assertEquals(200, page.status);
+
+                List<String> pageRecords = page.records();
+                records.addAll(pageRecords);
+                pageSizes.add(pageRecords.size());
+                token = page.header(CONTINUATION);
+            } while (token != null);
+        }
+
+        assertEquals(List.of(10, 10, 5), pageSizes);
+        assertEquals(expected(0, COUNT), records);
+    }
+
+    @Test
+    void fullLastPageHasNoToken() throws IOException {
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            RawHttpConnection.RawResponse first = connection.request(
+                    "GET", "/v0/entities?start=" + key(0) + "&end=" + key(20) + "&limit=10", null
+            );
+            assertEquals(expected(0, 10), first.records());
+            String token = first.header(CONTINUATION);
+            assertNotNull(token);
+
+            RawHttpConnection.RawResponse last = connection.request(
+                    "GET", "/v0/entities?start=" + key(0) + "&end=" + key(20) + "&limit=10&continuation=" + token, null
+            );
+            assertEquals(expected(10, 20), last.records());
+            assertNull(last.header(CONTINUATION));
+        }
+    }
+
+    @Test
+    void largeValuesMakeShorterPages() throws IOException {
+        int count = 10;
+        String value = "v".repeat(300 * 1024);
+        for (int i = 0; i < count; i++) {
+            dao.upsert(Record.of(wrap("large" + i), wrap(value)));
+        }
+
+        List<Integer> pageSizes = new ArrayList<>();
+        List<String> records = new ArrayList<>();
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            String token = null;
+
+            do {
+                String uri = "/v0/entities?start=large" + (token == null ? "" : "&continuation=" + token);
+                RawHttpConnection.RawResponse page = connection.request("GET", uri, null);
+                assertEquals(200, page.status);
+
+                List<String> pageRecords = page.records();
+                records.addAll(pageRecords);
+                pageSizes.add(pageRecords.size());
+                token = page.header(CONTINUATION);
+            } while (token != null);
+        }
+
+        // a page ends at the first record after it passes 1 MB
+        assertEquals(List.of(4, 4, 2), pageSizes);
+        for (int i = 0; i < count; i++) {
+            assertEquals("large" + i + "=" + value, records.get(i));
+        }
+    }
+
+    @Test
+    void malformedToken() throws IOException {
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            assertEquals(400, connection.request("GET", "/v0/entities?continuation=not*a*token", null).status);
+            assertEquals(400, connection.request("GET", "/v0/entities?limit=0", null).status);
+        }
+    }
+
+    private static List<String> expected(int from, int to) {
+        List<String> records = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            records.add(key(i) + "=value" + i);
+        }
+        return records;
+    }
+
+    private static String key(int i) {
+        return String.format("key%02d", i);
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,232 @@
+package ru.mail.polis.service;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * HTTP/1.1 connection that shows the wire format: requests may go without a body
+ * and chunked responses are read chunk by chunk, also when they are cut off.
+ */
+final class RawHttpConnection implements Closeable {
+
+    private static final int TIMEOUT_MILLIS = 30_000;
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    RawHttpConnection(int port) throws IOException {
+        this(port, 0);
+    }
+
+    /**
+     * Connects to the service.
+     *
+     * @param port          is port of the service.
+     * @param receiveBuffer is size of the socket receive buffer, zero for the default.
+     * @throws IOException if the connection can't be made.
+     */
+    RawHttpConnection(int port, int receiveBuffer) throws IOException {
+        this.socket = new Socket();
+
+        if (receiveBuffer > 0) {
+            socket.setReceiveBufferSize(receiveBuffer);
+        }
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        socket.connect(new InetSocketAddress("localhost", port), TIMEOUT_MILLIS);
+
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * Sends request, {@code Content-Length} is sent only with a body.
+     */
+    void send(String method, String uri, @Nullable byte[] body) throws IOException {
+        StringBuilder head = new StringBuilder()
+                .append(method).append(' ').append(uri).append(" HTTP/1.1\r\n")
+                .append("Host: localhost\r\n");
+
+        if (body != null) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+
+        out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    RawResponse request(String method, String uri, @Nullable byte[] body) throws IOException {
+        send(method, uri, body);
+        return read();
+    }
+
+    /**
+     * Reads the next response. A chunked body is read until the last chunk
+     * or until the connection is closed, then the response is not complete.
+     */
+    RawResponse read() throws IOException {
+        return read(null);
+    }
+
+    /**
+     * Reads the next response handing chunks of a chunked body to the consumer instead of keeping them,
+     * so that a long stream doesn't have to fit in memory.
+     *
+     * @param chunks takes every chunk, the body of the response is kept when it is {@code null}.
+     * @return response with the empty body if chunks were handed to the consumer.
+     * @throws IOException if the response can't be read.
+     */
+    RawResponse read(@Nullable Consumer<byte[]> chunks) throws IOException {
+        String statusLine = readLine();
+        if (statusLine == null) {
+            throw new EOFException("Connection closed before response");
+        }
+
+        int status = Integer.parseInt(statusLine.split(" ")[1]);
+        Map<String, String> headers = new HashMap<>();
+
+        for (String line = readLine(); line != null && !line.isEmpty(); line = readLine()) {
+            int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            return readChunked(status, headers, chunks);
+        }
+
+        int length = Integer.parseInt(headers.getOrDefault("content-length", "0"));
+        return new RawResponse(status, headers, in.readNBytes(length), List.of(), true);
+    }
+
+    private RawResponse readChunked(
+            int status,
+            Map<String, String> headers,
+            @Nullable Consumer<byte[]> chunks
+    ) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        List<Integer> chunkSizes = new ArrayList<>();
+
+        while (true) {
+            String sizeLine = readLine();
+            if (sizeLine == null) {
+                return new RawResponse(status, headers, body.toByteArray(), chunkSizes, false);
+            }
+
+            int size = Integer.parseInt(sizeLine.trim(), 16);
+            if (size == 0) {
+                String trailer = readLine();
+                return new RawResponse(status, headers, body.toByteArray(), chunkSizes, "".equals(trailer));
+            }
+
+            byte[] chunk = in.readNBytes(size);
+            if (chunks == null) {
+                body.write(chunk);
+            }
+            if (chunk.length < size || !"".equals(readLine())) {
+                return new RawResponse(status, headers, body.toByteArray(), chunkSizes, false);
+            }
+            chunkSizes.add(size);
+            if (chunks != null) {
+                chunks.accept(chunk);
+            }
+        }
+    }
+
+    @Nullable
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        for (int b = in.read(); b != -1; b = in.read()) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+            }
+            line.write(b);
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    static final class RawResponse {
+        final int status;
+        final Map<String, String> headers;
+        final byte[] body;
+        final List<Integer> chunkSizes;
+
+        /**
+         * Whether the whole body was read: for chunked body, whether the last chunk came.
+         */
+        final boolean complete;
+
+        private RawResponse(
+                int status,
+                Map<String, String> headers,
+                byte[] body,
+                List<Integer> chunkSizes,
+                boolean complete
+        ) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.chunkSizes = chunkSizes;
+            this.complete = complete;
+        }
+
+        @Nullable
+        String header(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        /**
+         * Decodes body of a page or a stream, {@code [int key size][key][int value size][value]} per record.
+         *
+         * @return records as {@code key=value}.
+         */
+        List<String> records() {
+            return records(ByteBuffer.wrap(body));
+        }
+
+        static List<String> records(ByteBuffer body) {
+            List<String> records = new ArrayList<>();
+
+            while (body.hasRemaining()) {
+                String key = string(body);
+                records.add(key + "=" + string(body));
+            }
+
+            return records;
+        }
+
+        private static String string(ByteBuffer body) {
+            byte[] bytes = new byte[body.getInt()];
+            body.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.lsm.DAO;
+import ru.mail.polis.lsm.DAOConfig;
+import ru.mail.polis.lsm.DAOFactory;
+import ru.mail.polis.lsm.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Chunked responses of {@code /v0/entities/stream}.
+ */
+class StreamingTest extends TestBase {
+
+    /**
+     * Records per chunk written by the service.
+     */
+    private static final int BATCH = 256;
+
+    @TempDir
+    Path data;
+
+    private DAO dao;
+    private Service service;
+    private int port;
+
+    @AfterEach
+    void stop() throws IOException {
+        service.stop();
+        dao.close();
+    }
+
+    @Test
+    void chunksHoldWholeBatches() throws IOException {
+        start();
+        int count = BATCH * 2 + 88;
+        upsert(0, count, 8);
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            RawHttpConnection.RawResponse stream = connection.request("GET", "/v0/entities/stream", null);
+
+            assertEquals(200, stream.status);
+            assertTrue(stream.complete);
+            assertEquals(List.of(BATCH, BATCH, 88), recordsPerChunk(stream));
+            assertEquals(expected(0, count, 8), stream.records());
+
+            // the last chunk ends the response, the connection is kept
+            assertEquals(200, connection.request("GET", "/v0/status", null).status);
+        }
+    }
+
+    @Test
+    void largeValuesTakeChunkEach() throws IOException {
+        start();
+        int count = 100;
+        int valueSize = 1024 * 1024;
+        upsert(0, count, valueSize);
+
+        // a batch of these values is far more than the heap of the tests
+        List<String> keys = new ArrayList<>();
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            connection.send("GET", "/v0/entities/stream", null);
+
+            RawHttpConnection.RawResponse stream = connection.read(chunk -> {
+                List<String> records = RawHttpConnection.RawResponse.records(ByteBuffer.wrap(chunk));
+                assertEquals(1, records.size());
+
+                int i = keys.size();
+                assertEquals(key(i) + "=" + value(i, valueSize), records.get(0));
+                keys.add(key(i));
+            });
+
+            assertEquals(200, stream.status);
+            assertTrue(stream.complete);
+        }
+        assertEquals(count, keys.size());
+    }
+
+    @Test
+    void emptyRange() throws IOException {
+        start();
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            RawHttpConnection.RawResponse stream = connection.request("GET", "/v0/entities/stream?start=a&end=b", null);
+
+            assertEquals(200, stream.status);
+            assertTrue(stream.complete);
+            assertEquals(List.of(), stream.chunkSizes);
+        }
+    }
+
+    @Test
+    void slowClientGetsEverything() throws IOException, InterruptedException {
+        start();
+        int count = 4000;
+        int valueSize = 2048;
+        upsert(0, count, valueSize);
+
+        try (RawHttpConnection connection = new RawHttpConnection(port, 4096)) {
+            connection.send("GET", "/v0/entities/stream", null);
+
+            // the socket fills up and the stream waits for the client
+            Thread.sleep(500);
+
+            RawHttpConnection.RawResponse stream = connection.read();
+            assertEquals(200, stream.status);
+            assertTrue(stream.complete);
+            assertEquals(expected(0, count, valueSize), stream.records());
+        }
+    }
+
+    @Test
+    void errorBeforeHeaders() throws IOException {
+        startFailing(new IllegalStateException("Broken range"), 0);
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            assertEquals(500, connection.request("GET", "/v0/entities/stream", null).status);
+            assertEquals(200, connection.request("GET", "/v0/status", null).status);
+        }
+    }
+
+    @Test
+    void errorAfterHeadersClosesConnection() throws IOException {
+        startFailing(new IllegalStateException("Broken range"), BATCH + 10);
+
+        try (RawHttpConnection connection = new RawHttpConnection(port)) {
+            RawHttpConnection.RawResponse stream = connection.request("GET", "/v0/entities/stream", null);
+
+            assertEquals(200, stream.status);
+            assertFalse(stream.complete);
+            assertEquals(expected(0, BATCH, 8), stream.records());
+        }
+    }
+
+    private void start() throws IOException {
+        start(DAOFactory.create(new DAOConfig(data)));
+    }
+
+    /**
+     * Starts service whose storage publishes the given number of records for any range, then fails.
+     */
+    private void startFailing(RuntimeException error, int records) throws IOException {
+        List<Record> published = new ArrayList<>();
+        for (int i = 0; i < records; i++) {
+            published.add(Record.of(wrap(key(i)), wrap(value(i, 8))));
+        }
+
+        start(DaoStubs.withRanges(
+                DAOFactory.create(new DAOConfig(data)),
+                () -> new DaoStubs.RecordsPublisher(published, error)
+        ));
+    }
+
+    private void start(DAO storage) throws IOException {
+        port = randomPort();
+        dao = storage;
+        service = ServiceFactory.create(port, dao);
+        service.start();
+    }
+
+    private void upsert(int from, int to, int valueSize) {
+        for (int i = from; i < to; i++) {
+            dao.upsert(Record.of(wrap(key(i)), wrap(value(i, valueSize))));
+        }
+    }
+
+    private static List<Integer> recordsPerChunk(RawHttpConnection.RawResponse stream) {
+        List<Integer> counts = new ArrayList<>();
+        int offset = 0;
+
+        for (int size : stream.chunkSizes) {
+            ByteBuffer chunk = ByteBuffer.wrap(Arrays.copyOfRange(stream.body, offset, offset + size));
+            counts.add(RawHttpConnection.RawResponse.records(chunk).size());
+            offset += size;
+        }
+
+        return counts;
+    }
+
+    private static List<String> expected(int from, int to, int valueSize) {
+        List<String> records = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            records.add(key(i) + "=" + value(i, valueSize));
+        }
+        return records;
+    }
+
+    private static String key(int i) {
+        return String.format("key%05d", i);
+    }
+
+    private static String value(int i, int size) {
+        StringBuilder value = new StringBuilder(size).append(i);
+        while (value.length() < size) {
+            value.append('v');
+        }
+        return value.toString();
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
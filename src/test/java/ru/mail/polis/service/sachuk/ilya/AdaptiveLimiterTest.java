@@ -0,0 +1,72 @@
+package ru.mail.polis.service.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimiterTest {
+
+    private static final long FAST = 1_000_000;
+
+    @Test
+    void writesLeaveShareForReads() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+
+        for (int i = 0; i < 8; i++) {
+            assertTrue(limiter.tryAcquire(true));
+        }
+        assertFalse(limiter.tryAcquire(true));
+        assertTrue(limiter.tryAcquire(false));
+        assertTrue(limiter.tryAcquire(false));
+        assertFalse(limiter.tryAcquire(false));
+        assertEquals(2, limiter.getShed());
+    }
+
+    @Test
+    void limitFollowsLatency() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+
+        runWindows(limiter, 5, FAST);
+        int grown = limiter.getLimit();
+        assertTrue(grown > 10);
+
+        runWindows(limiter, 3, FAST * 10);
+        int cut = limiter.getLimit();
+        assertTrue(cut < grown / 4);
+
+        // Lasting slowdown becomes the new baseline
+        runWindows(limiter, 50, FAST * 10);
+        assertTrue(limiter.getLimit() > cut);
+    }
+
+    @Test
+    void unusedLimitDoesNotGrow() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+
+        for (int i = 0; i < AdaptiveLimiter.WINDOW_SAMPLES * 3; i++) {
+            assertTrue(limiter.tryAcquire(false));
+            limiter.release(FAST);
+        }
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    private static void runWindows(AdaptiveLimiter limiter, int windows, long rtt) {
+        int samples = windows * AdaptiveLimiter.WINDOW_SAMPLES;
+
+        while (samples > 0) {
+            int acquired = 0;
+
+            while (acquired < samples && limiter.tryAcquire(false)) {
+                acquired++;
+            }
+            for (int i = 0; i < acquired; i++) {
+                limiter.release(rtt);
+            }
+
+            samples -= acquired;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ru.mail.polis.service.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.lsm.Record;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchFormatTest {
+
+    @Test
+    void readsRecordsAndDeletes() {
+        ByteBuffer body = ByteBuffer.allocate(64)
+                .putInt(2).put(bytes("k1")).putInt(3).put(bytes("one"))
+                .putInt(2).put(bytes("k2")).putInt(BatchFormat.ABSENT)
+                .putInt(2).put(bytes("k3")).putInt(0);
+
+        List<Record> records = BatchFormat.readRecords(Arrays.copyOf(body.array(), body.position()));
+
+        assertEquals(3, records.size());
+        assertEquals(wrap("k1"), records.get(0).getKey());
+        assertEquals(wrap("one"), records.get(0).getValue());
+        assertTrue(records.get(1).isTombstone());
+        assertEquals(0, records.get(2).getValue().remaining());
+    }
+
+    @Test
+    void writesValuesInRequestOrder() {
+        byte[] body = BatchFormat.writeValues(Arrays.asList(Record.of(wrap("k1"), wrap("one")), null));
+
+        ByteBuffer expected = ByteBuffer.allocate(11).putInt(3).put(bytes("one")).putInt(BatchFormat.ABSENT);
+        assertEquals(ByteBuffer.wrap(expected.array()), ByteBuffer.wrap(body));
+    }
+
+    @Test
+    void rejectsMalformedBodies() {
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.readIds(new byte[]{0, 0}));
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.readIds(new byte[]{0, 0, 0, 5, 1}));
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.readIds(new byte[]{0, 0, 0, 0}));
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.readRecords(new byte[]{0, 0, 0, 1, 1}));
+        assertEquals(List.of(wrap("a")), BatchFormat.readIds(new byte[]{0, 0, 0, 1, 'a'}));
+    }
+
+    @Test
+    void limitsIdsAndResponse() {
+        ByteBuffer ids = ByteBuffer.allocate((Integer.BYTES + 1) * (BatchFormat.MAX_IDS + 1));
+        while (ids.hasRemaining()) {
+            ids.putInt(1).put((byte) 'a');
+        }
+
+        byte[] body = ids.array();
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.readIds(body));
+        assertEquals(
+                BatchFormat.MAX_IDS,
+                BatchFormat.readIds(Arrays.copyOf(body, body.length - Integer.BYTES - 1)).size()
+        );
+
+        Record large = Record.of(wrap("k"), ByteBuffer.allocate(BatchFormat.MAX_RESPONSE_SIZE / 2));
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.writeValues(List.of(large, large)));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer wrap(String text) {
+        return ByteBuffer.wrap(bytes(text));
+    }
+}
@@ -0,0 +1,24 @@
+package ru.mail.polis.service.sachuk.ilya;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ValueResponseTest {
+
+    @Test
+    void writesHeadersAndValue() {
+        ByteBuffer value = ByteBuffer.allocateDirect(5).put("value".getBytes(StandardCharsets.UTF_8)).flip();
+        ValueResponse response = new ValueResponse(value.asReadOnlyBuffer(), () -> {
+        });
+        response.addHeader("Connection: Keep-Alive");
+
+        String expectedHead = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nConnection: Keep-Alive\r\n\r\n";
+        assertEquals(expectedHead + "value", new String(response.toBytes(true), StandardCharsets.US_ASCII));
+        assertEquals(expectedHead, new String(response.toBytes(false), StandardCharsets.US_ASCII));
+        assertEquals(5, value.remaining());
+    }
+}